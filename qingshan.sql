@@ -95,6 +95,7 @@ DROP TABLE IF EXISTS `tb_seckill_voucher`;
 CREATE TABLE `tb_seckill_voucher`  (
   `voucher_id` bigint(20) UNSIGNED NOT NULL COMMENT '关联的优惠券的id',
   `stock` int(8) NOT NULL COMMENT '库存',
+  `shards` int(4) UNSIGNED NOT NULL DEFAULT 1 COMMENT 'Redis库存分片数量，大于1时开启分片库存',
   `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
   `begin_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '生效时间',
   `end_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '失效时间',
@@ -105,9 +106,9 @@ CREATE TABLE `tb_seckill_voucher`  (
 -- ----------------------------
 -- Records of tb_seckill_voucher
 -- ----------------------------
-INSERT INTO `tb_seckill_voucher` VALUES (2, 99, '2023-02-12 14:33:29', '2023-02-12 14:30:00', '2023-02-12 23:00:00', '2023-02-12 21:44:56');
-INSERT INTO `tb_seckill_voucher` VALUES (10, 100, '2023-02-13 22:03:39', '2023-02-13 10:09:17', '2023-03-26 23:09:04', '2023-02-13 22:03:39');
-INSERT INTO `tb_seckill_voucher` VALUES (11, 99, '2023-02-14 14:41:59', '2023-02-13 10:09:17', '2023-03-26 23:09:04', '2023-02-14 15:44:22');
+INSERT INTO `tb_seckill_voucher` VALUES (2, 99, 1, '2023-02-12 14:33:29', '2023-02-12 14:30:00', '2023-02-12 23:00:00', '2023-02-12 21:44:56');
+INSERT INTO `tb_seckill_voucher` VALUES (10, 100, 1, '2023-02-13 22:03:39', '2023-02-13 10:09:17', '2023-03-26 23:09:04', '2023-02-13 22:03:39');
+INSERT INTO `tb_seckill_voucher` VALUES (11, 99, 1, '2023-02-14 14:41:59', '2023-02-13 10:09:17', '2023-03-26 23:09:04', '2023-02-14 15:44:22');
 
 -- ----------------------------
 -- Table structure for tb_shop
@@ -289,13 +290,16 @@ CREATE TABLE `tb_voucher_order`  (
   `use_time` timestamp NULL DEFAULT NULL COMMENT '核销时间',
   `refund_time` timestamp NULL DEFAULT NULL COMMENT '退款时间',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
-  PRIMARY KEY (`id`) USING BTREE
+  `active_user_id` bigint(20) UNSIGNED NULL DEFAULT NULL COMMENT '未取消订单的用户id，订单取消后置为NULL，不再占用一人一单的名额',
+  `redis_restored` tinyint(1) UNSIGNED NOT NULL DEFAULT 0 COMMENT '订单取消后是否已经归还Redis库存，0：未归还；1：已归还',
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_voucher_user`(`voucher_id`, `active_user_id`) USING BTREE
 ) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = COMPACT;
 
 -- ----------------------------
 -- Records of tb_voucher_order
 -- ----------------------------
-INSERT INTO `tb_voucher_order` VALUES (151367944729788420, 1011, 2, 1, 1, '2023-02-12 21:44:56', NULL, NULL, NULL, '2023-02-12 21:44:56');
-INSERT INTO `tb_voucher_order` VALUES (152017197756055571, 1011, 11, 1, 1, '2023-02-14 15:44:22', NULL, NULL, NULL, '2023-02-14 15:44:22');
+INSERT INTO `tb_voucher_order` VALUES (151367944729788420, 1011, 2, 1, 1, '2023-02-12 21:44:56', NULL, NULL, NULL, '2023-02-12 21:44:56', 1011, 0);
+INSERT INTO `tb_voucher_order` VALUES (152017197756055571, 1011, 11, 1, 1, '2023-02-14 15:44:22', NULL, NULL, NULL, '2023-02-14 15:44:22', 1011, 0);
 
 SET FOREIGN_KEY_CHECKS = 1;
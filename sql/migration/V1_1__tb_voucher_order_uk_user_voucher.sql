@@ -0,0 +1,16 @@
+-- ----------------------------
+-- tb_voucher_order 增加 (user_id, voucher_id) 唯一索引，由数据库保证一人一单
+-- 已有库执行本脚本，新库直接使用 qingshan.sql 即可
+-- ----------------------------
+
+SET NAMES utf8mb4;
+
+-- 清理历史重复订单，同一用户同一优惠券只保留最早的一单
+DELETE o1 FROM `tb_voucher_order` o1
+  INNER JOIN `tb_voucher_order` o2
+    ON o1.`user_id` = o2.`user_id`
+   AND o1.`voucher_id` = o2.`voucher_id`
+   AND o1.`id` > o2.`id`;
+
+ALTER TABLE `tb_voucher_order`
+  ADD UNIQUE INDEX `uk_user_voucher`(`user_id`, `voucher_id`) USING BTREE;
@@ -0,0 +1,8 @@
+-- ----------------------------
+-- tb_voucher_order 唯一索引调整为 (voucher_id, user_id)
+-- 一人一单的约束不变，同时支持按优惠券统计订单数、按 user_id 分页对账，避免全表扫描
+-- ----------------------------
+
+ALTER TABLE `tb_voucher_order`
+  DROP INDEX `uk_user_voucher`,
+  ADD UNIQUE INDEX `uk_voucher_user`(`voucher_id`, `user_id`) USING BTREE;
@@ -0,0 +1,13 @@
+-- ----------------------------
+-- tb_voucher_order 一人一单只约束未取消的订单
+-- 超时未支付的订单取消后归还库存，用户可以重新抢购；下单时 active_user_id 写入用户id，取消时置为NULL，不再参与唯一索引
+-- ----------------------------
+
+ALTER TABLE `tb_voucher_order`
+  ADD COLUMN `active_user_id` bigint(20) UNSIGNED NULL DEFAULT NULL COMMENT '未取消订单的用户id，订单取消后置为NULL，不再占用一人一单的名额' AFTER `update_time`;
+
+UPDATE `tb_voucher_order` SET `active_user_id` = `user_id` WHERE `status` <> 4;
+
+ALTER TABLE `tb_voucher_order`
+  DROP INDEX `uk_voucher_user`,
+  ADD UNIQUE INDEX `uk_voucher_user`(`voucher_id`, `active_user_id`) USING BTREE;
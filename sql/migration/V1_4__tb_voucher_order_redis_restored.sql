@@ -0,0 +1,10 @@
+-- ----------------------------
+-- tb_voucher_order 记录取消的订单是否已经归还Redis库存
+-- 取消订单时先在数据库中修改状态并归还库存，再归还Redis库存；归还Redis库存之前宕机的订单，重新认领时仍能找回并继续归还
+-- ----------------------------
+
+ALTER TABLE `tb_voucher_order`
+  ADD COLUMN `redis_restored` tinyint(1) UNSIGNED NOT NULL DEFAULT 0 COMMENT '订单取消后是否已经归还Redis库存，0：未归还；1：已归还' AFTER `active_user_id`;
+
+-- 之前取消的订单已经归还过Redis库存
+UPDATE `tb_voucher_order` SET `redis_restored` = 1 WHERE `status` = 4;
@@ -0,0 +1,7 @@
+-- ----------------------------
+-- tb_seckill_voucher 保存Redis库存分片数量
+-- Redis中的元数据丢失后，预热按数据库中的分片数量重建库存，不会把分片秒杀券当作不分片重建
+-- ----------------------------
+
+ALTER TABLE `tb_seckill_voucher`
+  ADD COLUMN `shards` int(4) UNSIGNED NOT NULL DEFAULT 1 COMMENT 'Redis库存分片数量，大于1时开启分片库存' AFTER `stock`;
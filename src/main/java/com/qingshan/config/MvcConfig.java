@@ -1,13 +1,17 @@
 package com.qingshan.config;
 
+import com.qingshan.utils.AdminInterceptor;
 import com.qingshan.utils.LoginInterceptor;
 import com.qingshan.utils.RefreshTokenInterceptor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * web拦截器设定
@@ -18,6 +22,10 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    // 允许访问运维管理接口的用户id
+    @Value("${qingshan.admin.user-ids:}")
+    private Set<Long> adminIds = new HashSet<>();
+
     /**
      * 登录拦截器配置
      * excludePathPatterns参数中添加不拦截的路径
@@ -36,5 +44,8 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/shop-type/**",
                         "/voucher/**"
                 ).order(1);
+        // 管理员拦截器，运维管理接口的返回内容包含用户id等信息，只允许管理员查询
+        registry.addInterceptor(new AdminInterceptor(adminIds))
+                .addPathPatterns("/admin/**").order(2);
     }
 }
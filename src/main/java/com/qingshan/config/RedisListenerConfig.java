@@ -0,0 +1,50 @@
+package com.qingshan.config;
+
+import com.qingshan.utils.CacheClient;
+import com.qingshan.utils.IdBloomFilter;
+import com.qingshan.utils.SeckillOrderStatus;
+import com.qingshan.utils.SeckillSoldOutCache;
+import com.qingshan.utils.SeckillVoucherMetaCache;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.Arrays;
+
+import static com.qingshan.utils.RedisConstants.BLOOM_CHANNEL;
+import static com.qingshan.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.qingshan.utils.RedisConstants.SECKILL_META_CHANNEL;
+import static com.qingshan.utils.RedisConstants.SECKILL_ORDER_STATUS_CHANNEL;
+import static com.qingshan.utils.RedisConstants.SECKILL_RESTOCK_CHANNEL;
+import static com.qingshan.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * Redis发布订阅配置类
+ */
+@Configuration
+public class RedisListenerConfig {
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       SeckillSoldOutCache seckillSoldOutCache,
+                                                                       SeckillVoucherMetaCache seckillVoucherMetaCache,
+                                                                       SeckillOrderStatus seckillOrderStatus,
+                                                                       CacheClient cacheClient,
+                                                                       IdBloomFilter idBloomFilter) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 秒杀券售罄、补货广播
+        container.addMessageListener(seckillSoldOutCache, Arrays.asList(
+                new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL), new ChannelTopic(SECKILL_RESTOCK_CHANNEL)));
+        // 秒杀券元数据变更广播
+        container.addMessageListener(seckillVoucherMetaCache, new ChannelTopic(SECKILL_META_CHANNEL));
+        // 秒杀订单处理完成广播
+        container.addMessageListener(seckillOrderStatus, new ChannelTopic(SECKILL_ORDER_STATUS_CHANNEL));
+        // 缓存失效广播
+        container.addMessageListener(cacheClient, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        // 布隆过滤器新增id、重建广播
+        container.addMessageListener(idBloomFilter, new ChannelTopic(BLOOM_CHANNEL));
+        return container;
+    }
+}
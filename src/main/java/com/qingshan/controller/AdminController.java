@@ -0,0 +1,30 @@
+package com.qingshan.controller;
+
+
+import com.qingshan.dto.Result;
+import com.qingshan.utils.HotKeyDetector;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * 运维管理控制器，查询本节点的运行状态
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    /**
+     * 查询本节点当前的热点key
+     *
+     * @return 热点key列表，按估计的访问次数从高到低排列
+     */
+    @GetMapping("hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+}
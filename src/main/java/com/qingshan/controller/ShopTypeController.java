@@ -1,11 +1,15 @@
 package com.qingshan.controller;
 
 
-import com.qingshan.dto.Result;
+import com.qingshan.dto.ShopTypeSnapshot;
 import com.qingshan.service.IShopTypeService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.annotation.Resource;
 
@@ -18,8 +22,22 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
 
+    /**
+     * 查询所有的商户类型，直接返回快照中序列化好的响应体
+     * 请求头 If-None-Match 与快照的ETag相同时返回304，浏览器使用本地缓存
+     *
+     * @param request 当前请求
+     * @return 响应体为Result的JSON
+     */
     @GetMapping("list")
-    public Result queryTypeList() {
-        return typeService.queryShopType();
+    public ResponseEntity<byte[]> queryTypeList(WebRequest request) {
+        ShopTypeSnapshot snapshot = typeService.queryShopTypeSnapshot();
+        if (request.checkNotModified(snapshot.getEtag())) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(CacheControl.noCache())
+                .body(snapshot.getBody());
     }
 }
@@ -1,11 +1,9 @@
 package com.qingshan.controller;
 
 
-import cn.hutool.core.bean.BeanUtil;
 import com.qingshan.dto.LoginFormDTO;
 import com.qingshan.dto.Result;
 import com.qingshan.dto.UserDTO;
-import com.qingshan.entity.User;
 import com.qingshan.entity.UserInfo;
 import com.qingshan.service.IUserInfoService;
 import com.qingshan.service.IUserService;
@@ -92,11 +90,11 @@ public class UserController {
      */
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id") Long userId) {
-        User user = userService.getById(userId);
-        if (user == null) {
+        // 查询缓存，一定不存在的用户由布隆过滤器拦截，不再查询数据库
+        UserDTO userDTO = userService.getUserDTO(userId);
+        if (userDTO == null) {
             return Result.fail("该用户已经不存在啦！");
         }
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
         return Result.ok(userDTO);
     }
 
@@ -4,6 +4,7 @@ package com.qingshan.controller;
 import com.qingshan.dto.Result;
 import com.qingshan.entity.Voucher;
 import com.qingshan.service.IVoucherService;
+import com.qingshan.utils.SeckillPreheater;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -18,6 +19,9 @@ public class VoucherController {
     @Resource
     private IVoucherService voucherService;
 
+    @Resource
+    private SeckillPreheater seckillPreheater;
+
     /**
      * 新增普通券
      * @param voucher 优惠券信息
@@ -40,6 +44,19 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 预热所有未结束的秒杀券，Redis数据丢失后按数据库重建库存与已下单用户
+     * @return 重建了库存的秒杀券数量
+     */
+    @PostMapping("seckill/preheat")
+    public Result preheatSeckillVouchers() {
+        int rebuilt = seckillPreheater.preheat();
+        if (rebuilt < 0) {
+            return Result.fail("其他节点正在预热，请稍后再试！");
+        }
+        return Result.ok(rebuilt);
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
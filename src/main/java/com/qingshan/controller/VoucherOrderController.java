@@ -3,10 +3,8 @@ package com.qingshan.controller;
 
 import com.qingshan.dto.Result;
 import com.qingshan.service.IVoucherOrderService;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -24,4 +22,16 @@ public class VoucherOrderController {
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询秒杀订单的处理结果
+     * @param orderId 订单id
+     * @param timeout 订单仍在处理中时最多等待的时间（毫秒），默认不等待
+     * @return 订单处理结果
+     */
+    @GetMapping("{id}/status")
+    public DeferredResult<Result> queryOrderStatus(@PathVariable("id") Long orderId,
+                                                   @RequestParam(value = "timeout", defaultValue = "0") Long timeout) {
+        return voucherOrderService.queryOrderStatus(orderId, timeout);
+    }
 }
@@ -0,0 +1,21 @@
+package com.qingshan.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 热点key返回实体
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HotKeyDTO {
+    private String key;
+    // 滑动窗口内估计的访问次数（按采样率换算）
+    private Long count;
+    // 升级为热点key的时间
+    private LocalDateTime since;
+}
@@ -0,0 +1,18 @@
+package com.qingshan.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 秒杀排队信息返回实体
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeckillQueueDTO {
+    // 前面还有多少人
+    private Long position;
+    // 预计多久后轮到（毫秒），客户端在此之后重试
+    private Long retryAfter;
+}
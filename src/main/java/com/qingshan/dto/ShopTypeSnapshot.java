@@ -0,0 +1,23 @@
+package com.qingshan.dto;
+
+import com.qingshan.entity.ShopType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 商户类型的本地快照，构建后不再修改，多个请求共享同一个快照
+ */
+@Getter
+@AllArgsConstructor
+public class ShopTypeSnapshot {
+    // 构建快照时Redis中的版本号
+    private final long version;
+    // 按顺序排列的商户类型，不能修改
+    private final List<ShopType> types;
+    // 预先序列化好的响应体（Result的JSON），不能修改
+    private final byte[] body;
+    // 响应体的哈希，内容相同的快照在各节点上ETag相同
+    private final String etag;
+}
@@ -0,0 +1,19 @@
+package com.qingshan.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 秒杀订单处理结果返回实体
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VoucherOrderStatusDTO {
+    private Long orderId;
+    // PENDING：处理中；CREATED：下单成功；FAILED：下单失败
+    private String status;
+    // 下单失败的原因
+    private String reason;
+}
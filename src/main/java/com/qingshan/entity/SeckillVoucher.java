@@ -32,6 +32,11 @@ public class SeckillVoucher implements Serializable {
      */
     private Integer stock;
 
+    /**
+     * Redis库存分片数量，大于1时开启分片库存
+     */
+    private Integer shards;
+
     /**
      * 创建时间
      */
@@ -73,6 +73,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private Integer stock;
 
+    /**
+     * 库存分片数量，大于1时开启分片库存，用于热门秒杀券
+     */
+    @TableField(exist = false)
+    private Integer shards;
+
     /**
      * 生效时间
      */
@@ -2,7 +2,27 @@ package com.qingshan.mapper;
 
 import com.qingshan.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 插入订单，违反主键（同一个订单重复投递）或者 uk_voucher_user(voucher_id, active_user_id) 唯一索引时忽略
+     * 取消的订单 active_user_id 为NULL，不占用一人一单的名额，用户可以重新抢购
+     *
+     * @param order 待保存的订单
+     * @return 插入的行数，0表示订单已经存在或者用户有未取消的该优惠券订单
+     */
+    int insertIgnore(@Param("order") VoucherOrder order);
+
+    /**
+     * 多行插入订单，一条SQL保存一批订单，违反主键或者 uk_voucher_user(voucher_id, active_user_id) 唯一索引的行被忽略
+     * 取消的订单 active_user_id 为NULL，不参与唯一索引
+     *
+     * @param orders 待保存的订单集合
+     * @return 实际插入的行数
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> orders);
 }
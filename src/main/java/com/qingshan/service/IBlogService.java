@@ -13,6 +13,9 @@ public interface IBlogService extends IService<Blog> {
 
     Result queryBlogById(Long id);
 
+    // 根据id查询博客，带缓存，返回的对象不能修改
+    Blog getBlog(Long id);
+
     Result likeBlog(Long id);
 
     Result queryBlogLikes(Long id);
@@ -8,4 +8,10 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 保存秒杀券的元数据（库存分片数量、秒杀时间段）到Redis中，供秒杀Lua脚本判断
+     * @param seckillVoucher 秒杀券信息
+     * @param shards 库存分片数量
+     */
+    void saveSeckillMeta(SeckillVoucher seckillVoucher, int shards);
 }
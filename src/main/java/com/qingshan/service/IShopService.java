@@ -11,6 +11,9 @@ public interface IShopService extends IService<Shop> {
     // 根据id查询商户信息
     public Result queryById(Long id);
 
+    // 根据id查询商户，带缓存
+    Shop getShop(Long id);
+
     // 更新商户信息
     Result update(Shop shop);
 }
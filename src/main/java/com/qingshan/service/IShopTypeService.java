@@ -1,6 +1,7 @@
 package com.qingshan.service;
 
 import com.qingshan.dto.Result;
+import com.qingshan.dto.ShopTypeSnapshot;
 import com.qingshan.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -10,4 +11,7 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopTypeService extends IService<ShopType> {
     // 查询所有商户类型
     public Result queryShopType();
+
+    // 查询商户类型的本地快照
+    ShopTypeSnapshot queryShopTypeSnapshot();
 }
@@ -3,9 +3,12 @@ package com.qingshan.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.qingshan.dto.LoginFormDTO;
 import com.qingshan.dto.Result;
+import com.qingshan.dto.UserDTO;
 import com.qingshan.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * 用户相关服务类接口
@@ -19,4 +22,10 @@ public interface IUserService extends IService<User> {
     Result sign();
 
     Result signCount();
+
+    // 根据id查询用户公开信息，带缓存
+    UserDTO getUserDTO(Long id);
+
+    // 批量查询用户公开信息，优先走缓存
+    Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids);
 }
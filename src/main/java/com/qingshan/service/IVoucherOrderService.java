@@ -3,6 +3,10 @@ package com.qingshan.service;
 import com.qingshan.dto.Result;
 import com.qingshan.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * 秒杀服务接口类
@@ -19,7 +23,35 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     /**
      * 新增订单业务
      * @param voucherOrder 订单信息
-     * @return Result
+     * @return 下单失败的原因，下单成功时返回null
+     */
+    String createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量新增订单业务，按优惠券分组扣减库存，多行插入订单
+     * @param voucherOrders 一批订单信息
+     * @return 没有创建的订单id -> 原因（用户已经抢过、订单已经取消等）
+     */
+    Map<Long, String> createVoucherOrderBatch(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 取消超时未支付的订单，按优惠券分组归还数据库库存
+     * @param orderIds 超过支付截止时间的订单id
+     * @return 需要归还Redis库存的订单：本次取消的订单，以及之前取消、但还没有归还Redis库存的订单
+     */
+    List<VoucherOrder> cancelUnpaidOrders(List<Long> orderIds);
+
+    /**
+     * 标记取消的订单已经归还Redis库存，之后不会再被 cancelUnpaidOrders 返回
+     * @param orderIds 已经归还Redis库存的订单id
+     */
+    void markRedisRestored(List<Long> orderIds);
+
+    /**
+     * 查询秒杀订单的处理结果，支持长轮询
+     * @param orderId 订单id
+     * @param timeout 订单仍在处理中时最多等待的时间（毫秒）
+     * @return 订单处理结果
      */
-    void createVoucherOrder(VoucherOrder voucherOrder);
+    DeferredResult<Result> queryOrderStatus(Long orderId, Long timeout);
 }
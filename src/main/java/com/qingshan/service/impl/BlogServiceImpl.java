@@ -8,14 +8,18 @@ import com.qingshan.dto.ScrollResult;
 import com.qingshan.dto.UserDTO;
 import com.qingshan.entity.Blog;
 import com.qingshan.entity.Follow;
-import com.qingshan.entity.User;
 import com.qingshan.mapper.BlogMapper;
 import com.qingshan.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.qingshan.service.IFollowService;
 import com.qingshan.service.IUserService;
+import com.qingshan.utils.CacheClient;
+import com.qingshan.utils.HotKeyDetector;
+import com.qingshan.utils.IdBloomFilter;
+import com.qingshan.utils.QingshanCached;
 import com.qingshan.utils.SystemConstants;
 import com.qingshan.utils.UserHolder;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
@@ -25,6 +29,9 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 import static com.qingshan.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.qingshan.utils.RedisConstants.BLOOM_BLOG_KEY;
+import static com.qingshan.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.qingshan.utils.RedisConstants.CACHE_BLOG_TTL;
 import static com.qingshan.utils.RedisConstants.FEED_KEY;
 import static com.qingshan.utils.SystemConstants.DEFAULT_PAGE_SIZE;
 
@@ -43,16 +50,31 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheClient cacheClient;
+
     /**
      * 根据博客查询用户信息，将用户信息封装到博客对象里传输
+     * 一批博客的作者一次批量查询，不再每篇博客查询一次
      *
-     * @param blog 博客对象
+     * @param blogs 博客对象集合
      */
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    private void queryBlogUser(List<Blog> blogs) {
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = userService.queryUserDTOs(userIds);
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
     }
 
     @Override
@@ -63,11 +85,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        // 批量查询用户
+        this.queryBlogUser(records);
+        records.forEach(this::isBlogLiked);
         return Result.ok(records);
     }
 
@@ -80,17 +100,32 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogById(Long id) {
-        Blog blog = getById(id);
-        if (blog == null) {
+        // 通过代理对象查询，缓存注解才能生效；一定不存在的博客由布隆过滤器拦截，不再查询数据库
+        Blog cached = ((IBlogService) AopContext.currentProxy()).getBlog(id);
+        if (cached == null) {
             return Result.fail("博客不存在啦！");
         }
+        // 缓存中的对象会被多个请求共享，复制之后再封装用户与点赞信息
+        Blog blog = BeanUtil.copyProperties(cached, Blog.class);
         // 查询blog有关的用户信息
-        queryBlogUser(blog);
+        queryBlogUser(Collections.singletonList(blog));
         // 查询此blog是否被当前用户点赞了
         isBlogLiked(blog);
         return Result.ok(blog);
     }
 
+    /**
+     * 根据id查询博客，解决 缓存穿透 + 缓存击穿 问题
+     *
+     * @param id 博客ID
+     * @return 博客，不存在时返回null
+     */
+    @Override
+    @QingshanCached(prefix = CACHE_BLOG_KEY, ttl = CACHE_BLOG_TTL)
+    public Blog getBlog(Long id) {
+        return getById(id);
+    }
+
     /**
      * 判断当前blog是否被当前用户点赞了
      * 之后将注入是否点赞的属性到blog对象中
@@ -104,13 +139,16 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         // 获取登录用户
         Long userId = UserHolder.getUser().getId();
-        // 判断用户是否已经点赞
-        Double score = stringRedisTemplate.opsForZSet().score(BLOG_LIKED_KEY + blog.getId(), userId.toString());
+        // 判断用户是否已经点赞，按用户查询的点赞记录不保存副本，只统计访问次数
+        String key = BLOG_LIKED_KEY + blog.getId();
+        hotKeyDetector.record(key);
+        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
         blog.setIsLike(score != null);
     }
 
     /**
      * 对指定id的博文进行点赞
+     * 不删除博客缓存，否则热门博客每次点赞后都要重新查询数据库，缓存中的点赞数在缓存过期后刷新
      *
      * @param id 博文id
      * @return Result
@@ -139,6 +177,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 stringRedisTemplate.opsForZSet().remove(BLOG_LIKED_KEY + id, userId.toString());
             }
         }
+        // 点赞列表变化，清除各节点的热点副本
+        cacheClient.evictLocal(BLOG_LIKED_KEY + id);
         return Result.ok();
     }
 
@@ -150,21 +190,17 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogLikes(Long id) {
-        // 查询top的点赞用户
-        Set<String> likedTop5 = stringRedisTemplate.opsForZSet().range(BLOG_LIKED_KEY + id, 0, 4);
+        // 查询top的点赞用户，热点博客读取本地副本
+        String key = BLOG_LIKED_KEY + id;
+        Set<String> likedTop5 = hotKeyDetector.getOrLoad(key, () -> stringRedisTemplate.opsForZSet().range(key, 0, 4));
         // 解析出用户id信息
         // 防止空指针异常
         if (likedTop5 == null || likedTop5.isEmpty()) {
             return Result.ok(Collections.emptyList());
         }
         List<Long> ids = likedTop5.stream().map(Long::valueOf).collect(Collectors.toList());
-        // 将id拼接成字符串
-        String idStr = StrUtil.join(",", ids);
-        // 根据id查询用户
-        List<User> users = userService.query().in("id", ids)
-                .last("ORDER BY FIELD(id," + idStr + ")").list();
-        // 封装UserDTO对象
-        List<UserDTO> userDTOs = BeanUtil.copyToList(users, UserDTO.class);
+        // 根据id批量查询用户，结果按点赞时间排序
+        List<UserDTO> userDTOs = new ArrayList<>(userService.queryUserDTOs(ids).values());
         // 返回用户信息
         return Result.ok(userDTOs);
     }
@@ -245,10 +281,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         List<Blog> blogs = query().in("id", ids)
                 .last("ORDER BY FIELD(id," + idStr + ")").list();
 
-        // 给每个blog封装点赞，作者等信息
+        // 给每个blog封装点赞，作者等信息，blog有关的用户批量查询
+        queryBlogUser(blogs);
         for (Blog blog : blogs) {
-            // 查询blog有关的用户
-            queryBlogUser(blog);
             // 查询blog的点赞信息，当前用户是否点过赞？
             isBlogLiked(blog);
         }
@@ -260,4 +295,19 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         scrollResult.setOffset(os);
         return Result.ok(scrollResult);
     }
+
+    /**
+     * 保存博客，同时把新的id写入布隆过滤器
+     *
+     * @param blog 博客对象
+     * @return 是否保存成功
+     */
+    @Override
+    public boolean save(Blog blog) {
+        boolean isSave = super.save(blog);
+        if (isSave) {
+            idBloomFilter.add(BLOOM_BLOG_KEY, blog.getId());
+        }
+        return isSave;
+    }
 }
@@ -1,11 +1,9 @@
 package com.qingshan.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.qingshan.dto.Result;
 import com.qingshan.dto.UserDTO;
 import com.qingshan.entity.Follow;
-import com.qingshan.entity.User;
 import com.qingshan.mapper.FollowMapper;
 import com.qingshan.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
@@ -16,6 +14,7 @@ import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -104,8 +103,7 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
         }
         // 解析id
         List<Long> ids = commonFollows.stream().map(Long::valueOf).collect(Collectors.toList());
-        List<User> users = userService.listByIds(ids);
-        List<UserDTO> userDTOS = users.stream().map(user -> BeanUtil.copyProperties(user, UserDTO.class)).collect(Collectors.toList());
+        List<UserDTO> userDTOS = new ArrayList<>(userService.queryUserDTOs(ids).values());
         return Result.ok(userDTOS);
     }
 }
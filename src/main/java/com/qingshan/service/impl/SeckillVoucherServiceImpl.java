@@ -4,12 +4,58 @@ import com.qingshan.entity.SeckillVoucher;
 import com.qingshan.mapper.SeckillVoucherMapper;
 import com.qingshan.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.qingshan.utils.SeckillKeyUtils;
+import com.qingshan.utils.SeckillVoucherMetaCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.qingshan.utils.RedisConstants.SECKILL_META_KEY;
+
 /**
  * 优惠券秒杀实现类
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillVoucherMetaCache seckillVoucherMetaCache;
+
+    /**
+     * 保存秒杀券的元数据到Redis中
+     * 分片库存的秒杀券在每个分片旁边再保存一份秒杀时间段，保证Lua脚本只访问同一个slot的key
+     *
+     * @param seckillVoucher 秒杀券信息
+     * @param shards         库存分片数量
+     */
+    @Override
+    public void saveSeckillMeta(SeckillVoucher seckillVoucher, int shards) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        Map<String, String> window = new HashMap<>();
+        window.put("begin", String.valueOf(toEpochMilli(seckillVoucher.getBeginTime())));
+        window.put("end", String.valueOf(toEpochMilli(seckillVoucher.getEndTime())));
+        if (shards > 1) {
+            for (int i = 0; i < shards; i++) {
+                stringRedisTemplate.opsForHash().putAll(SeckillKeyUtils.metaKey(voucherId, i), window);
+            }
+        }
+        Map<String, String> meta = new HashMap<>(window);
+        meta.put("shards", String.valueOf(shards));
+        stringRedisTemplate.opsForHash().putAll(SECKILL_META_KEY + voucherId, meta);
+        seckillVoucherMetaCache.evict(voucherId);
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
 }
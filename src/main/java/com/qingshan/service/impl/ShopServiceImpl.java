@@ -5,15 +5,15 @@ import com.qingshan.entity.Shop;
 import com.qingshan.mapper.ShopMapper;
 import com.qingshan.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.qingshan.utils.CacheClient;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.qingshan.utils.IdBloomFilter;
+import com.qingshan.utils.QingshanCached;
+import com.qingshan.utils.QingshanEvict;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 
-import java.util.concurrent.TimeUnit;
-
 import static com.qingshan.utils.RedisConstants.*;
 
 /**
@@ -23,10 +23,7 @@ import static com.qingshan.utils.RedisConstants.*;
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
-
-    @Resource
-    private CacheClient cacheClient;
+    private IdBloomFilter idBloomFilter;
 
     /**
      * 根据id查询商户信息
@@ -36,9 +33,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      */
     @Override
     public Result queryById(Long id) {
-        // 根据id查询商户信息，解决 缓存穿透 + 缓存击穿 问题
-        Shop shop = cacheClient.
-                queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        // 通过代理对象查询，缓存注解才能生效
+        Shop shop = ((IShopService) AopContext.currentProxy()).getShop(id);
 
         if (shop == null) {
             return Result.fail("商户信息不存在！");
@@ -48,14 +44,28 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
 
+    /**
+     * 根据id查询商户，解决 缓存穿透 + 缓存击穿 问题，商户是热点数据，逻辑过期后异步重建，查询不等待数据库
+     *
+     * @param id 商户id
+     * @return 商户，不存在时返回null
+     */
+    @Override
+    @QingshanCached(prefix = CACHE_SHOP_KEY, ttl = CACHE_SHOP_TTL, strategy = QingshanCached.Strategy.LOGICAL)
+    public Shop getShop(Long id) {
+        return getById(id);
+    }
+
     /**
      * 更新商户信息，实现缓存与数据库的双写一致，需要基于事务
+     * 更新成功后删除缓存，同时清除各节点的本地缓存
      *
      * @param shop 商户对象
      * @return Result
      */
     @Override
     @Transactional
+    @QingshanEvict(prefix = CACHE_SHOP_KEY, key = "#shop.id")
     public Result update(Shop shop) {
         Long id = shop.getId();
         if (id == null) {
@@ -63,9 +73,21 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         // 更新数据库
         updateById(shop);
-        // 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
         return Result.ok();
     }
 
+    /**
+     * 保存商户，同时把新的id写入布隆过滤器
+     *
+     * @param shop 商户对象
+     * @return 是否保存成功
+     */
+    @Override
+    public boolean save(Shop shop) {
+        boolean isSave = super.save(shop);
+        if (isSave) {
+            idBloomFilter.add(BLOOM_SHOP_KEY, shop.getId());
+        }
+        return isSave;
+    }
 }
@@ -1,32 +1,45 @@
 package com.qingshan.service.impl;
 
-import cn.hutool.json.JSONUtil;
-import com.baomidou.mybatisplus.core.toolkit.StringUtils;
+import cn.hutool.core.lang.hash.MurmurHash;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.qingshan.dto.Result;
+import com.qingshan.dto.ShopTypeSnapshot;
 import com.qingshan.entity.ShopType;
 import com.qingshan.mapper.ShopTypeMapper;
 import com.qingshan.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 
+import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
-import static com.qingshan.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
-import static com.qingshan.utils.RedisConstants.CACHE_SHOP_TYPE_TTL;
+import static com.qingshan.utils.RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY;
 
 /**
  * 查询商户类型接口实现类
+ * 商户类型很少变化，每个节点保存一份不可变的本地快照，连同序列化好的响应体，查询时不访问Redis、不做JSON转换
+ * 商户类型变更时Redis中的版本号自增，各节点定期检查版本号，发现变化后重新加载快照；直接修改数据库后需要手动 INCR 版本号
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private ObjectMapper objectMapper;
+
+    // 当前的快照，第一次查询时加载
+    private volatile ShopTypeSnapshot snapshot;
+
     /**
      * 查询所有商户类型
      *
@@ -34,23 +47,111 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
      */
     @Override
     public Result queryShopType() {
-        // 从redis查询商户类型缓存
-        String shopTypeJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_KEY);
-        // 判断商户类型缓存是否存在
-        if (StringUtils.isNotBlank(shopTypeJson)) {
-            // 商户类型缓存存在，直接返回结果
-            List<ShopType> shopTypeList = JSONUtil.toList(shopTypeJson, ShopType.class);
-            return Result.ok(shopTypeList);
-        }
-        // 不存在，查询数据库
-        List<ShopType> shopTypeList = query().orderByAsc("sort").list();
-        // 查询数据库不存在，返回错误
-        if (shopTypeList == null) {
-            return Result.fail("店铺类型不存在！");
-        }
-        // 查询数据库存在，写入数据到Redis中
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE_KEY, JSONUtil.toJsonStr(shopTypeList), CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
-        // 返回数据给前端
-        return Result.ok(shopTypeList);
+        return Result.ok(queryShopTypeSnapshot().getTypes());
+    }
+
+    /**
+     * 查询商户类型的本地快照，返回的快照不能修改
+     *
+     * @return 快照
+     */
+    @Override
+    public ShopTypeSnapshot queryShopTypeSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                long version;
+                try {
+                    version = currentVersion();
+                } catch (RuntimeException e) {
+                    // Redis不可用时先从数据库加载，版本号记为-1，Redis恢复后检查版本号时重新加载
+                    log.warn("查询商户类型版本号失败", e);
+                    version = -1;
+                }
+                snapshot = load(version);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * 定期检查Redis中的版本号，版本变化后重新加载快照
+     */
+    @Scheduled(fixedDelayString = "${qingshan.shop-type.version-check-interval:5000}")
+    public void checkVersion() {
+        ShopTypeSnapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        try {
+            long version = currentVersion();
+            if (version != current.getVersion()) {
+                synchronized (this) {
+                    snapshot = load(version);
+                }
+                log.info("商户类型版本变化，重新加载快照：{} -> {}", current.getVersion(), version);
+            }
+        } catch (Exception e) {
+            log.error("检查商户类型版本号失败", e);
+        }
+    }
+
+    @Override
+    public boolean save(ShopType shopType) {
+        boolean isSave = super.save(shopType);
+        if (isSave) {
+            increaseVersion();
+        }
+        return isSave;
+    }
+
+    @Override
+    public boolean updateById(ShopType shopType) {
+        boolean isUpdate = super.updateById(shopType);
+        if (isUpdate) {
+            increaseVersion();
+        }
+        return isUpdate;
+    }
+
+    @Override
+    public boolean removeById(Serializable id) {
+        boolean isRemove = super.removeById(id);
+        if (isRemove) {
+            increaseVersion();
+        }
+        return isRemove;
+    }
+
+    /**
+     * 商户类型变更后版本号自增，本节点的快照立即失效，其他节点在下一次检查版本号时重新加载
+     */
+    private void increaseVersion() {
+        stringRedisTemplate.opsForValue().increment(CACHE_SHOP_TYPE_VERSION_KEY);
+        snapshot = null;
+    }
+
+    private long currentVersion() {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+        return version == null ? 0 : Long.parseLong(version);
+    }
+
+    /**
+     * 查询数据库并构建快照，先读取版本号再查询数据库，期间发生的变更会在下一次检查版本号时重新加载
+     */
+    private ShopTypeSnapshot load(long version) {
+        List<ShopType> types = query().orderByAsc("sort").list();
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(types));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("商户类型序列化失败", e);
+        }
+        long[] hash = MurmurHash.hash128(body);
+        String etag = "\"" + Long.toHexString(hash[0]) + Long.toHexString(hash[1]) + "\"";
+        return new ShopTypeSnapshot(version, Collections.unmodifiableList(types), body, etag);
     }
 }
@@ -11,6 +11,9 @@ import com.qingshan.dto.UserDTO;
 import com.qingshan.entity.User;
 import com.qingshan.mapper.UserMapper;
 import com.qingshan.service.IUserService;
+import com.qingshan.utils.CacheClient;
+import com.qingshan.utils.IdBloomFilter;
+import com.qingshan.utils.QingshanCached;
 import com.qingshan.utils.SystemConstants;
 import com.qingshan.utils.UserHolder;
 import org.springframework.data.redis.connection.BitFieldSubCommands;
@@ -21,10 +24,13 @@ import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.qingshan.utils.RedisConstants.*;
 import static com.qingshan.utils.RegexUtils.isPhoneInvalid;
@@ -38,6 +44,11 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private CacheClient cacheClient;
 
     /**
      * 发送验证码
@@ -190,4 +201,47 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         }
         return Result.ok(count);
     }
+
+    /**
+     * 保存用户，同时把新的id写入布隆过滤器
+     *
+     * @param user 用户对象
+     * @return 是否保存成功
+     */
+    @Override
+    public boolean save(User user) {
+        boolean isSave = super.save(user);
+        if (isSave) {
+            idBloomFilter.add(BLOOM_USER_KEY, user.getId());
+        }
+        return isSave;
+    }
+
+    /**
+     * 根据id查询用户公开信息，一定不存在的用户由布隆过滤器拦截
+     *
+     * @param id 用户id
+     * @return 用户公开信息，不存在时返回null
+     */
+    @Override
+    @QingshanCached(prefix = CACHE_USER_KEY, ttl = CACHE_USER_TTL, strategy = QingshanCached.Strategy.PASS_THROUGH)
+    public UserDTO getUserDTO(Long id) {
+        User user = getById(id);
+        return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+    }
+
+    /**
+     * 批量查询用户公开信息，缓存未命中的用户一次查询数据库
+     *
+     * @param ids 用户id集合
+     * @return 用户id -> 用户公开信息，按ids的顺序排列，不存在的用户不包含在内
+     */
+    @Override
+    public Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids) {
+        return cacheClient.queryBatch(CACHE_USER_KEY, ids, UserDTO.class,
+                missIds -> listByIds(missIds).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                        .collect(Collectors.toMap(UserDTO::getId, Function.identity())),
+                CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
 }
@@ -1,32 +1,52 @@
 package com.qingshan.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
 import com.qingshan.dto.Result;
+import com.qingshan.dto.SeckillQueueDTO;
 import com.qingshan.entity.VoucherOrder;
 import com.qingshan.mapper.VoucherOrderMapper;
 import com.qingshan.service.ISeckillVoucherService;
 import com.qingshan.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.qingshan.utils.RedisIdWorker;
+import com.qingshan.utils.SeckillKeyUtils;
+import com.qingshan.utils.SeckillOrderJournal;
+import com.qingshan.utils.SeckillOrderStatus;
+import com.qingshan.utils.SeckillSoldOutCache;
+import com.qingshan.utils.SeckillVoucherMetaCache;
+import com.qingshan.utils.SeckillWaitingRoom;
 import com.qingshan.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.DefaultTypedTuple;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import java.util.Collections;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
 
-import static com.qingshan.utils.RedisConstants.LOCK_KEY;
+import static com.qingshan.utils.RedisConstants.*;
+import static com.qingshan.utils.SystemConstants.*;
 
 /**
  * 秒杀服务实现类
@@ -45,21 +65,70 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private RedissonClient redissonClient;
+    private SeckillSoldOutCache seckillSoldOutCache;
+
+    @Resource
+    private SeckillVoucherMetaCache seckillVoucherMetaCache;
+
+    @Resource
+    private SeckillOrderStatus seckillOrderStatus;
+
+    @Resource
+    private SeckillOrderJournal seckillOrderJournal;
+
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    // 为了防止事务失效，这里注入自身的代理对象，异步线程中也能通过代理调用事务方法
+    @Lazy
+    @Resource
+    private IVoucherOrderService proxy;
 
     // 引入秒杀Lua脚本
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    // 引入分片库存的秒杀Lua脚本
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_SCRIPT;
 
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
         SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_SHARD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_SCRIPT.setLocation(new ClassPathResource("seckill-shard.lua"));
+        SECKILL_SHARD_SCRIPT.setResultType(Long.class);
     }
 
-    // 创建异步下单的阻塞队列
-    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
-    // 创建异步下单的线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    // 订单的支付期限（毫秒），超时未支付的订单自动取消
+    @Value("${qingshan.seckill.pay-timeout:900000}")
+    private long payTimeout;
+
+    // 异步下单的分区数量，同一个用户的订单总是落在同一个分区，由同一个线程按顺序处理
+    @Value("${qingshan.seckill.order-partitions:4}")
+    private int partitionCount;
+
+    // 每个分区的有界队列，队列满时拉取线程阻塞，未拉取的订单留在Redis Stream中
+    private List<BlockingQueue<OrderMessage>> partitions;
+
+    // 异步下单的线程池，每个分区一个下单线程
+    private ExecutorService seckillOrderExecutor;
+
+    // 拉取订单消息的线程池，主消息队列以及每个分片消息队列各一个拉取线程
+    private ExecutorService seckillStreamExecutor;
+
+    // 本节点已经启动拉取线程的消息队列
+    private final Set<String> streams = ConcurrentHashMap.newKeySet();
+
+    // 当前节点在消费者组中的名称，使用主机名保证节点重启后仍能找回自己未确认的消息
+    private final String consumerName = NetUtil.getLocalHostName();
+
+    // 异步下单线程是否继续运行
+    private volatile boolean running = true;
+
+    // 已经分发到分区队列、尚未处理完的消息（消息队列key/消息id），认领空闲消息时跳过，避免同一条消息被重复分发
+    private final Set<String> dispatched = ConcurrentHashMap.newKeySet();
 
     /**
      * 设置@PostConstruct注解，表示在项目初始化完毕之后即执行VoucherOrderHandler方法
@@ -67,114 +136,556 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @PostConstruct
     private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        partitions = new ArrayList<>(partitionCount);
+        seckillOrderExecutor = Executors.newFixedThreadPool(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            BlockingQueue<OrderMessage> queue = new ArrayBlockingQueue<>(SECKILL_ORDER_PARTITION_CAPACITY);
+            partitions.add(queue);
+            // 每个分区的队列深度
+            Gauge.builder("qingshan.seckill.order.partition.depth", queue, Collection::size)
+                    .tag("partition", String.valueOf(i))
+                    .register(meterRegistry);
+            seckillOrderExecutor.submit(new PartitionWorker(queue));
+        }
+        seckillStreamExecutor = Executors.newCachedThreadPool();
+        startStreamHandler(SECKILL_STREAM_KEY);
     }
 
     /**
-     * 异步执行下单任务的方法
+     * 项目关闭时停止异步下单线程，未确认的消息留在pending-list中，下次启动时重新处理
+     */
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        seckillOrderExecutor.shutdown();
+        seckillStreamExecutor.shutdown();
+    }
+
+    /**
+     * 为消息队列启动拉取线程，已经启动过的忽略
+     *
+     * @param streamKey 消息队列key
+     */
+    private void startStreamHandler(String streamKey) {
+        if (streams.add(streamKey)) {
+            seckillStreamExecutor.submit(new VoucherOrderHandler(streamKey));
+        }
+    }
+
+    /**
+     * 为新登记的分片消息队列启动拉取线程
+     * SMEMBERS qingshan:stream:orders:shards
+     */
+    private void refreshShardStreams() {
+        Set<String> shardStreams = stringRedisTemplate.opsForSet().members(SECKILL_STREAM_SHARDS_KEY);
+        if (shardStreams != null) {
+            shardStreams.forEach(this::startStreamHandler);
+        }
+    }
+
+    /**
+     * 创建订单消息队列及消费者组，已经存在时忽略
+     *
+     * @param streamKey 消息队列key
+     */
+    private void createStreamGroupIfAbsent(String streamKey) {
+        try {
+            stringRedisTemplate.execute(connection -> connection.streamCommands().xGroupCreate(
+                    streamKey.getBytes(StandardCharsets.UTF_8),
+                    SECKILL_STREAM_GROUP, ReadOffset.from("0"), true), true);
+        } catch (RedisSystemException e) {
+            // BUSYGROUP，消费者组已经存在
+            log.debug("消费者组已存在：{} {}", streamKey, SECKILL_STREAM_GROUP);
+        }
+    }
+
+    /**
+     * 从一个消息队列中拉取订单，按用户id分发到各个分区
+     * 主消息队列与每个分片消息队列各有一个拉取线程，分片消息队列与分片库存在同一个slot，Redis Cluster下各自读取所在的节点
      */
     private class VoucherOrderHandler implements Runnable {
+        private final String streamKey;
+
+        VoucherOrderHandler(String streamKey) {
+            this.streamKey = streamKey;
+        }
+
         @Override
         public void run() {
+            createStreamGroupIfAbsent(streamKey);
+            // 启动时先处理自己pending-list中未确认的消息
+            handlePendingList(streamKey);
+            long nextRecoverTime = 0;
+            long nextRefreshTime = 0;
             // 时时刻刻检测是否有待下单的任务
-            while (true) {
-                // 获取队列中的订单信息
+            while (running) {
+                try {
+                    // 主消息队列的拉取线程定期发现新的分片消息队列
+                    if (SECKILL_STREAM_KEY.equals(streamKey) && System.currentTimeMillis() >= nextRefreshTime) {
+                        refreshShardStreams();
+                        nextRefreshTime = System.currentTimeMillis() + SECKILL_STREAM_SHARDS_REFRESH;
+                    }
+                    // 定期认领空闲过久的未确认消息，包括宕机节点遗留的以及本节点下单失败的
+                    if (System.currentTimeMillis() >= nextRecoverTime) {
+                        recoverIdlePendingOrders(streamKey);
+                        nextRecoverTime = System.currentTimeMillis() + SECKILL_STREAM_CLAIM_IDLE;
+                    }
+                    // 获取消息队列中的订单信息，最多凑够一批或者等待一段时间
+                    // XREADGROUP GROUP g1 c1 COUNT 200 BLOCK 200 STREAMS qingshan:stream:orders >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(SECKILL_STREAM_GROUP, consumerName),
+                            StreamReadOptions.empty().count(SECKILL_ORDER_BATCH_SIZE)
+                                    .block(Duration.ofMillis(SECKILL_ORDER_BATCH_WAIT)),
+                            StreamOffset.create(streamKey, ReadOffset.lastConsumed())
+                    );
+                    // 没有消息，继续下一次循环
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    // 分发到各个分区
+                    for (MapRecord<String, Object, Object> record : list) {
+                        dispatch(streamKey, record.getId(), record.getValue());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    // 应用关闭时Redis连接已经断开，直接退出
+                    if (!running) {
+                        return;
+                    }
+                    // Redis被清空或者主从切换丢失了消费者组，重新创建后继续拉取
+                    if (String.valueOf(e.getMessage()).contains("NOGROUP")) {
+                        log.warn("订单消息队列的消费者组不存在，重新创建：{}", streamKey);
+                        createStreamGroupIfAbsent(streamKey);
+                        continue;
+                    }
+                    // 已经读取但没有分发的消息仍在pending-list中，空闲过久后会被重新认领
+                    log.error("拉取订单异常", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 分区下单线程，每次从分区队列中取出一批订单入库
+     */
+    private class PartitionWorker implements Runnable {
+        private final BlockingQueue<OrderMessage> queue;
+
+        PartitionWorker(BlockingQueue<OrderMessage> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            List<OrderMessage> batch = new ArrayList<>(SECKILL_ORDER_BATCH_SIZE);
+            while (running) {
                 try {
-                    VoucherOrder voucherOrder = orderTasks.take();
-                    // 执行处理订单的方法
-                    handlerVoucherOrder(voucherOrder);
+                    // 最多等待一段时间，取到第一条订单后把队列中已有的订单凑成一批
+                    OrderMessage first = queue.poll(SECKILL_ORDER_BATCH_WAIT, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, SECKILL_ORDER_BATCH_SIZE - 1);
+                    handleOrders(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 } catch (Exception e) {
                     log.error("处理订单异常", e);
+                } finally {
+                    // 已确认的消息不会再被认领，失败的消息留在pending-list中，空闲过久后重新认领
+                    for (OrderMessage message : batch) {
+                        dispatched.remove(message.key());
+                    }
+                    batch.clear();
                 }
             }
         }
     }
 
     /**
-     * 处理订单
+     * 按用户id的哈希值把订单分发到对应分区，分区队列满时阻塞等待
+     * 已经在分区队列中或者正在处理的消息直接跳过
      *
-     * @param voucherOrder 订单信息
+     * @param streamKey 消息队列key
+     * @param id        消息id
+     * @param value     消息内容
      */
-    private void handlerVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = voucherOrder.getUserId();
-        // 这里使用Redisson的锁改进我们自己实现的锁🔒
-        RLock lock = redissonClient.getLock(LOCK_KEY + "order:" + userId);
+    private void dispatch(String streamKey, RecordId id, Map<?, ?> value) throws InterruptedException {
+        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+        OrderMessage message = new OrderMessage(streamKey, id, voucherOrder);
+        if (!dispatched.add(message.key())) {
+            return;
+        }
+        int partition = Math.floorMod(voucherOrder.getUserId().hashCode(), partitionCount);
+        partitions.get(partition).put(message);
+    }
 
-        // 获取锁
-        boolean isLock = lock.tryLock();
-        // 获取锁失败，代表当前用户在多次抢券
-        if (!isLock) {
-            log.error("不允许重复抢券！");
+    /**
+     * 启动时处理pending-list中已经投递给当前消费者但尚未确认的订单
+     */
+    private void handlePendingList(String streamKey) {
+        String lastId = "0";
+        while (running) {
+            try {
+                // XREADGROUP GROUP g1 c1 COUNT 200 STREAMS qingshan:stream:orders 0
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(SECKILL_STREAM_GROUP, consumerName),
+                        StreamReadOptions.empty().count(SECKILL_ORDER_BATCH_SIZE),
+                        StreamOffset.create(streamKey, ReadOffset.from(lastId))
+                );
+                // pending-list中没有消息，结束
+                if (list == null || list.isEmpty()) {
+                    break;
+                }
+                lastId = list.get(list.size() - 1).getId().getValue();
+                for (MapRecord<String, Object, Object> record : list) {
+                    dispatch(streamKey, record.getId(), record.getValue());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("处理pending-list订单异常", e);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
         }
+    }
 
+    /**
+     * 认领空闲过久的未确认消息并重新分发，包括宕机节点遗留的消息以及本节点下单失败的消息
+     * XCLAIM只看空闲时间，分区队列积压时本节点尚未处理的消息同样会超过空闲时间，这些消息不认领
+     * 按消息id分页遍历整个pending-list，每页从上一页最后一个id之后开始，前面的消息都不能认领时也能找到后面遗留的消息
+     */
+    private void recoverIdlePendingOrders(String streamKey) throws InterruptedException {
+        Range<String> range = Range.unbounded();
+        while (true) {
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(streamKey, SECKILL_STREAM_GROUP, range, SECKILL_ORDER_BATCH_SIZE);
+            List<RecordId> idleIds = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (message.getElapsedTimeSinceLastDelivery().toMillis() >= SECKILL_STREAM_CLAIM_IDLE
+                        && !dispatched.contains(streamKey + "/" + message.getIdAsString())) {
+                    idleIds.add(message.getId());
+                }
+            }
+            if (!idleIds.isEmpty()) {
+                // XCLAIM qingshan:stream:orders g1 c1 60000 id...
+                List<ByteRecord> records = stringRedisTemplate.execute(connection -> connection.streamCommands().xClaim(
+                        streamKey.getBytes(StandardCharsets.UTF_8), SECKILL_STREAM_GROUP, consumerName,
+                        RedisStreamCommands.XClaimOptions.minIdleMs(SECKILL_STREAM_CLAIM_IDLE)
+                                .ids(idleIds.toArray(new RecordId[0]))), true);
+                if (records != null) {
+                    for (ByteRecord record : records) {
+                        dispatch(streamKey, record.getId(),
+                                record.deserialize(stringRedisTemplate.getStringSerializer()).getValue());
+                    }
+                }
+            }
+            if (pending.size() < SECKILL_ORDER_BATCH_SIZE) {
+                return;
+            }
+            // 下一页从最后一个id的下一个序号开始，不使用Redis 6.2才支持的排他区间
+            RecordId lastId = pending.get(pending.size() - 1).getId();
+            String nextId = lastId.getTimestamp() + "-" + (lastId.getSequence() + 1);
+            range = Range.of(Range.Bound.inclusive(nextId), Range.Bound.unbounded());
+        }
+    }
+
+    /**
+     * 处理一批订单，先整批入库，整批失败时退化为逐条处理
+     * 订单事务提交后确认并删除消息，控制消息队列的内存占用
+     *
+     * @param messages 订单消息
+     */
+    private void handleOrders(List<OrderMessage> messages) {
+        List<VoucherOrder> voucherOrders = new ArrayList<>(messages.size());
+        for (OrderMessage message : messages) {
+            voucherOrders.add(message.voucherOrder);
+        }
+        List<Long> created = new ArrayList<>(messages.size());
+        Map<Long, String> failed = new HashMap<>();
         try {
-            // 保存新订单到数据库中
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            // 手动释放锁
-            lock.unlock();
+            // 整批保存新订单到数据库中
+            failed.putAll(proxy.createVoucherOrderBatch(voucherOrders));
+            for (VoucherOrder voucherOrder : voucherOrders) {
+                if (!failed.containsKey(voucherOrder.getId())) {
+                    created.add(voucherOrder.getId());
+                }
+            }
+            seckillOrderStatus.complete(created, failed);
+            scheduleCancellation(created);
+            checkpoint(created, failed);
+            acknowledge(messages);
+            return;
+        } catch (Exception e) {
+            log.warn("批量下单失败，逐条处理：{}", e.getMessage());
+        }
+        // 逐条处理，成功的订单确认消息，失败的订单留在pending-list中
+        List<OrderMessage> handled = new ArrayList<>(messages.size());
+        for (OrderMessage message : messages) {
+            try {
+                // 同一用户的订单只会在同一个分区线程中处理，不再需要分布式锁
+                String reason = proxy.createVoucherOrder(message.voucherOrder);
+                if (reason == null) {
+                    created.add(message.voucherOrder.getId());
+                } else {
+                    failed.put(message.voucherOrder.getId(), reason);
+                }
+                handled.add(message);
+            } catch (Exception e) {
+                log.error("处理订单异常", e);
+            }
+        }
+        seckillOrderStatus.complete(created, failed);
+        scheduleCancellation(created);
+        checkpoint(created, failed);
+        acknowledge(handled);
+    }
+
+    /**
+     * 登记新订单的支付截止时间，超时未支付由 SeckillOrderCanceler 取消
+     * ZADD qingshan:seckill:unpaid deadline orderId ...
+     *
+     * @param orderIds 下单成功的订单id
+     */
+    private void scheduleCancellation(List<Long> orderIds) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        double deadline = System.currentTimeMillis() + payTimeout;
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(orderIds.size());
+        for (Long orderId : orderIds) {
+            tuples.add(new DefaultTypedTuple<>(orderId.toString(), deadline));
         }
+        stringRedisTemplate.opsForZSet().add(SECKILL_UNPAID_KEY, tuples);
     }
 
+    /**
+     * 订单已经落库或者确定下单失败，标记本地日志中的记录完成
+     * 在其他节点秒杀的订单由 SeckillOrderStatus 收到处理完成的广播后在那个节点标记
+     */
+    private void checkpoint(List<Long> created, Map<Long, String> failed) {
+        seckillOrderJournal.checkpoint(created);
+        seckillOrderJournal.checkpoint(failed.keySet());
+    }
 
-    // 主线程拿到的代理对象
-    private IVoucherOrderService proxy;
+    /**
+     * 按消息队列确认并删除一批订单消息 XACK qingshan:stream:orders g1 id...
+     *
+     * @param messages 已经入库的订单消息
+     */
+    private void acknowledge(List<OrderMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Map<String, List<RecordId>> idsByStream = messages.stream().collect(Collectors.groupingBy(
+                message -> message.streamKey, Collectors.mapping(message -> message.id, Collectors.toList())));
+        idsByStream.forEach((streamKey, idList) -> {
+            RecordId[] ids = idList.toArray(new RecordId[0]);
+            stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_STREAM_GROUP, ids);
+            stringRedisTemplate.opsForStream().delete(streamKey, ids);
+        });
+    }
 
     /**
-     * 秒杀实现，优化版，redis判断库存 + 消息队列
+     * 分区队列中的订单消息
+     */
+    private static class OrderMessage {
+        private final String streamKey;
+        private final RecordId id;
+        private final VoucherOrder voucherOrder;
+
+        OrderMessage(String streamKey, RecordId id, VoucherOrder voucherOrder) {
+            this.streamKey = streamKey;
+            this.id = id;
+            this.voucherOrder = voucherOrder;
+        }
+
+        /**
+         * 消息在本节点的唯一标识，不同消息队列的消息id可能相同
+         */
+        String key() {
+            return streamKey + "/" + id.getValue();
+        }
+    }
+
+    /**
+     * 秒杀实现，优化版，redis判断库存 + Redis Stream消息队列
      *
      * @param voucherId 秒杀券的ID
      * @return Result
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
+        // 本地已经标记售罄，直接返回，不再访问Redis
+        if (seckillSoldOutCache.isSoldOut(voucherId)) {
+            return Result.fail("库存不足！");
+        }
+        // 根据本地缓存的秒杀时间段提前拒绝，Lua脚本中还会再以Redis时间判断一次
+        if (seckillVoucherMetaCache.isNotStarted(voucherId)) {
+            return Result.fail("秒杀尚未开始呢！");
+        }
+        if (seckillVoucherMetaCache.isEnded(voucherId)) {
+            return Result.fail("秒杀已经结束啦！");
+        }
+        // 进入虚拟等候室，按令牌桶限速放行，没有领到令牌的请求不执行秒杀脚本
+        SeckillQueueDTO queue = seckillWaitingRoom.enter(voucherId);
+        if (queue != null) {
+            return Result.fail("排队中，请稍后重试！", queue);
+        }
         // 获取用户信息
         Long userId = UserHolder.getUser().getId();
-        // 执行Lua脚本，判断有无抢券资格
-        Long resultLong = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString()
-        );
+        // 获取订单ID
+        long orderId = redisIdWorker.nextId("order");
+        // 预留本地日志记录，Redis丢失订单消息时可以重新投递
+        seckillOrderJournal.reserve(orderId, userId, voucherId);
+        // 执行Lua脚本，判断有无抢券资格，有资格则在脚本内将订单信息发送到消息队列中
+        Long resultLong;
+        int shards = seckillVoucherMetaCache.getShards(voucherId);
+        try {
+            if (shards > 1) {
+                resultLong = executeShardedSeckill(voucherId, userId, orderId, shards);
+            } else {
+                resultLong = stringRedisTemplate.execute(
+                        SECKILL_SCRIPT,
+                        Collections.emptyList(),
+                        voucherId.toString(), userId.toString(), String.valueOf(orderId), statusTtl()
+                );
+            }
+        } catch (RuntimeException e) {
+            seckillOrderJournal.release(orderId);
+            throw e;
+        }
 
         assert resultLong != null;
         int result = resultLong.intValue();
+        if (result == 0) {
+            seckillOrderJournal.commit(orderId);
+        } else {
+            seckillOrderJournal.release(orderId);
+        }
+        // 库存不足，标记售罄并通知其他节点
+        if (result == 1) {
+            seckillSoldOutCache.markSoldOut(voucherId);
+            return Result.fail("库存不足！");
+        }
+        // 不在秒杀时间段内
+        if (result == 3) {
+            return Result.fail("秒杀尚未开始呢！");
+        }
+        if (result == 4) {
+            return Result.fail("秒杀已经结束啦！");
+        }
+        // 库存尚未预热，不能标记售罄，预热完成后即可继续抢购
+        if (result == 5) {
+            return Result.fail("秒杀券正在准备中，请稍后重试！");
+        }
         // 没有购买资格，返回异常
         if (result != 0) {
-            return Result.fail(result == 1 ? "库存不足！" : "不能重复抢券哦！");
+            return Result.fail("不能重复抢券哦！");
         }
 
-        // 有购买资格，将下单的信息保存到阻塞队列中
-        // 获取订单ID
-        long orderId = redisIdWorker.nextId("order");
-        // 创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        voucherOrder.setId(orderId);  // 订单ID
-        voucherOrder.setUserId(userId);  // 用户ID
-        voucherOrder.setVoucherId(voucherId);  // 代金券ID
-        orderTasks.add(voucherOrder);  // 放入阻塞队列
-        // 为了防止事务失效，这里使用代理对象调用方法
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
         // 返回订单id
         return Result.ok(orderId);
     }
 
     /**
-     * 创建新订单，基于悲观锁实现一人一单功能
+     * 分片库存秒杀，从用户id哈希对应的分片开始，分片库存不足时依次尝试后面的分片
+     * 用户每次都先到默认分片，默认分片的已抢购集合记录了用户在任意分片抢到的订单，默认分片之后补回库存也能识别重复下单；
+     * 默认分片库存不足时脚本先占用标记，其他分片都没有抢到时再移除，同一用户并发的请求只有一个会去尝试其他分片
+     * 默认分片的库存key缺失时不占用标记，预热时会按数据库补回已抢购用户
+     * 脚本只访问同一个hash tag下的分片库存、订单集合、已抢购集合、元数据和分片消息队列，Redis Cluster下不会跨slot
+     *
+     * @param voucherId 秒杀券的ID
+     * @param userId    用户ID
+     * @param orderId   订单ID
+     * @param shards    分片数量
+     * @return 0：抢券成功；1：所有分片库存不足；2：重复下单；3：秒杀尚未开始；4：秒杀已经结束；5：没有抢到且有分片尚未预热
+     */
+    private Long executeShardedSeckill(Long voucherId, Long userId, long orderId, int shards) {
+        int home = SeckillKeyUtils.shardOf(userId, shards);
+        // 订单处理结果按订单id查询，不能与分片key放在同一个slot，在执行脚本之前写入
+        seckillOrderStatus.pending(orderId, userId);
+        Long result = 1L;
+        boolean notPreheated = false;
+        boolean reserved = false;
+        try {
+            for (int i = 0; i < shards; i++) {
+                int shard = (home + i) % shards;
+                result = stringRedisTemplate.execute(
+                        SECKILL_SHARD_SCRIPT,
+                        Arrays.asList(SeckillKeyUtils.stockKey(voucherId, shard),
+                                SeckillKeyUtils.orderKey(voucherId, shard), SeckillKeyUtils.streamKey(voucherId, shard),
+                                SeckillKeyUtils.metaKey(voucherId, shard), SeckillKeyUtils.buyerKey(voucherId, shard)),
+                        voucherId.toString(), userId.toString(), String.valueOf(orderId), i == 0 ? "1" : "0"
+                );
+                // 默认分片库存不足，脚本已经占用了已抢购标记
+                reserved |= i == 0 && result != null && result == 1;
+                // 分片库存不足或者尚未预热时继续尝试下一个分片
+                if (result != null && result == 5) {
+                    notPreheated = true;
+                    continue;
+                }
+                if (result == null || result != 1) {
+                    break;
+                }
+            }
+            // 所有分片都没有抢到，其中有分片尚未预热时不能当作售罄
+            if (notPreheated && result != null && (result == 1 || result == 5)) {
+                result = 5L;
+            }
+        } finally {
+            if (result == null || result != 0) {
+                seckillOrderStatus.remove(orderId);
+                if (reserved) {
+                    stringRedisTemplate.opsForSet().remove(SeckillKeyUtils.buyerKey(voucherId, home), userId.toString());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 订单处理结果的过期时间（秒），作为秒杀脚本的参数
+     */
+    private static String statusTtl() {
+        return String.valueOf(TimeUnit.MINUTES.toSeconds(SECKILL_ORDER_STATUS_TTL));
+    }
+
+    @Override
+    public DeferredResult<Result> queryOrderStatus(Long orderId, Long timeout) {
+        Long userId = UserHolder.getUser().getId();
+        return seckillOrderStatus.query(orderId, userId, timeout == null ? 0 : timeout);
+    }
+
+    /**
+     * 创建新订单，由 (voucher_id, active_user_id) 唯一索引实现一人一单功能，已取消的订单不占用名额
+     * 订单插入成功才扣减库存，库存不足时回滚订单
      *
      * @param voucherOrder 待创建订单的对象
+     * @return 下单失败的原因，下单成功时返回null
      */
     @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
-        // 得到用户ID
-        Long userId = voucherOrder.getUserId();
-        System.out.println(userId);
-
-        // 判断用户是否已经抢过该优惠券
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
-        if (count > 0) {
-            log.error("已经抢过啦！");
-            return;
+    public String createVoucherOrder(VoucherOrder voucherOrder) {
+        // 保存订单，用户已经抢过该优惠券时插入被忽略
+        int inserted = getBaseMapper().insertIgnore(voucherOrder);
+        if (inserted == 0) {
+            // 同一个订单重复投递，按已有订单的状态处理
+            VoucherOrder existing = query().select("id", "status").eq("id", voucherOrder.getId()).one();
+            if (existing != null) {
+                return redeliveredReason(existing.getStatus());
+            }
+            log.error("已经抢过啦！订单：{}", voucherOrder.getId());
+            return "已经抢过啦！";
         }
 
         // 扣减库存
@@ -185,13 +696,122 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .update();
         if (!isDeduction) {
             log.error("库存不足啦！");
-            return;
+            // 回滚已插入的订单
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return "库存不足啦！";
         }
-        // 保存订单
-        save(voucherOrder);
+        return null;
     }
 
 
+    /**
+     * 批量创建新订单，每种优惠券一次多行插入以及一次扣减库存
+     * 按实际插入的行数扣减库存，重复的订单由唯一索引忽略
+     * 任意一种优惠券库存不足时整批回滚，由调用方逐条处理
+     *
+     * @param voucherOrders 待创建订单的集合
+     * @return 没有创建的订单id -> 原因（用户已经抢过、订单已经取消等）
+     */
+    @Override
+    @Transactional
+    public Map<Long, String> createVoucherOrderBatch(List<VoucherOrder> voucherOrders) {
+        Map<Long, String> failed = new HashMap<>();
+        // 按优惠券分组
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        ordersOfVoucher.forEach((voucherId, orders) -> {
+            // 多行插入保存订单，返回值为实际插入的行数
+            int inserted = getBaseMapper().insertIgnoreBatch(orders);
+            if (inserted < orders.size()) {
+                // 查出被忽略的订单，同一个订单重复投递时订单id已经存在，按已有订单的状态处理
+                Map<Long, Integer> exists = query().select("id", "status")
+                        .in("id", orders.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                        .list().stream()
+                        .collect(Collectors.toMap(VoucherOrder::getId, VoucherOrder::getStatus));
+                for (VoucherOrder order : orders) {
+                    Integer status = exists.get(order.getId());
+                    String reason = status == null ? "已经抢过啦！" : redeliveredReason(status);
+                    if (reason != null) {
+                        failed.put(order.getId(), reason);
+                    }
+                }
+                log.error("已经抢过啦！优惠券：{}，重复订单数：{}", voucherId, orders.size() - inserted);
+            }
+            if (inserted == 0) {
+                return;
+            }
+            // 扣减库存
+            boolean isDeduction = seckillVoucherService.update()
+                    .setSql("stock = stock - " + inserted)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", inserted)
+                    .update();
+            if (!isDeduction) {
+                throw new IllegalStateException("库存不足，批量下单失败，优惠券：" + voucherId);
+            }
+        });
+        return failed;
+    }
+
+    /**
+     * 重复投递的订单已经存在，只有仍未支付的订单算作下单成功，需要登记支付截止时间
+     * 已经取消的订单不能算作下单成功，否则会被再次登记、再次取消，重复归还库存
+     *
+     * @param status 已有订单的状态
+     * @return 下单失败的原因，算作下单成功时返回null
+     */
+    private static String redeliveredReason(Integer status) {
+        if (status == null || status == 1) {
+            return null;
+        }
+        return status == 4 ? "订单已取消！" : "订单已处理！";
+    }
+
+    /**
+     * 取消超时未支付的订单，订单状态改为已取消，按优惠券分组归还库存
+     * 订单行加锁后再判断状态，与支付并发时只有一方能修改订单
+     *
+     * @param orderIds 超过支付截止时间的订单id
+     * @return 需要归还Redis库存的订单：本次从未支付改为已取消的订单，以及之前取消、但还没有归还Redis库存的订单
+     */
+    @Override
+    @Transactional
+    public List<VoucherOrder> cancelUnpaidOrders(List<Long> orderIds) {
+        List<VoucherOrder> orders = query()
+                .select("id", "user_id", "voucher_id", "status")
+                .in("id", orderIds)
+                .and(wrapper -> wrapper.eq("status", 1).or(or -> or.eq("status", 4).eq("redis_restored", 0)))
+                .last("FOR UPDATE")
+                .list();
+        List<Long> unpaid = orders.stream()
+                .filter(order -> order.getStatus() == 1)
+                .map(VoucherOrder::getId)
+                .collect(Collectors.toList());
+        if (unpaid.isEmpty()) {
+            return orders;
+        }
+        // 修改订单状态，释放一人一单的名额
+        update().set("status", 4).setSql("active_user_id = NULL").in("id", unpaid).eq("status", 1).update();
+        // 按优惠券分组归还库存
+        Map<Long, Long> countOfVoucher = orders.stream()
+                .filter(order -> order.getStatus() == 1)
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        countOfVoucher.forEach((voucherId, count) -> seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update());
+        log.info("取消超时未支付的订单{}个", unpaid.size());
+        return orders;
+    }
+
+    @Override
+    public void markRedisRestored(List<Long> orderIds) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        update().set("redis_restored", 1).in("id", orderIds).eq("status", 4).update();
+    }
+
     /**
      * 秒杀实现，普通版
      *
@@ -7,6 +7,8 @@ import com.qingshan.mapper.VoucherMapper;
 import com.qingshan.entity.SeckillVoucher;
 import com.qingshan.service.ISeckillVoucherService;
 import com.qingshan.service.IVoucherService;
+import com.qingshan.utils.SeckillKeyUtils;
+import com.qingshan.utils.SeckillSoldOutCache;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -15,6 +17,7 @@ import javax.annotation.Resource;
 import java.util.List;
 
 import static com.qingshan.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.qingshan.utils.RedisConstants.SECKILL_STREAM_SHARDS_KEY;
 
 /**
  * 优惠券服务接口实现类
@@ -28,6 +31,9 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -46,15 +52,40 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     public void addSeckillVoucher(Voucher voucher) {
         // 保存优惠券
         save(voucher);
-        // 保存秒杀信息
+        // 保存秒杀信息，分片数量同时保存到数据库，Redis中的元数据丢失后预热时按数据库重建
+        int shards = voucher.getShards() == null ? 1 : Math.max(voucher.getShards(), 1);
         SeckillVoucher seckillVoucher = new SeckillVoucher();
         seckillVoucher.setVoucherId(voucher.getId());
         seckillVoucher.setStock(voucher.getStock());
+        seckillVoucher.setShards(shards);
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        // 保存秒杀券的库存到Redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 保存秒杀券的库存到Redis中，热门秒杀券可以把库存拆分到多个分片
+        if (shards > 1) {
+            saveShardedStock(voucher.getId(), voucher.getStock(), shards);
+        } else {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        }
+        // 保存秒杀券的元数据（分片数量、秒杀时间段）到Redis中
+        seckillVoucherService.saveSeckillMeta(seckillVoucher, shards);
+        // 库存写入后清除各节点的售罄标记
+        seckillSoldOutCache.clearSoldOut(voucher.getId());
+    }
+
+    /**
+     * 把秒杀券库存平均拆分到多个分片中，余数依次分给前面的分片，并登记各分片的订单消息队列
+     *
+     * @param voucherId 秒杀券id
+     * @param stock     总库存
+     * @param shards    分片数量
+     */
+    private void saveShardedStock(Long voucherId, int stock, int shards) {
+        for (int i = 0; i < shards; i++) {
+            int shardStock = stock / shards + (i < stock % shards ? 1 : 0);
+            stringRedisTemplate.opsForValue().set(SeckillKeyUtils.stockKey(voucherId, i), String.valueOf(shardStock));
+            stringRedisTemplate.opsForSet().add(SECKILL_STREAM_SHARDS_KEY, SeckillKeyUtils.streamKey(voucherId, i));
+        }
     }
 }
@@ -0,0 +1,33 @@
+package com.qingshan.utils;
+
+import com.qingshan.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+
+/**
+ * 管理员拦截器
+ * 运维管理接口只允许配置的管理员访问，未配置管理员时全部拒绝
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final Set<Long> adminIds;
+
+    public AdminInterceptor(Set<Long> adminIds) {
+        this.adminIds = adminIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        if (user == null || !adminIds.contains(user.getId())) {
+            response.setStatus(403);
+            return false;
+        }
+        // 放行
+        return true;
+    }
+}
@@ -0,0 +1,460 @@
+package com.qingshan.utils;
+
+import cn.hutool.json.JSONUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 紧凑的二进制编码，按字段名排序依次写入字段值，不写字段名，整数使用变长编码
+ * 数据格式：版本(1) + 标志位(1) + [压缩前长度] + 正文；正文：[逻辑过期时间] + [重建耗时] + 字段布局指纹(4) + 空值位图 + 各字段的值
+ * 实体类增减字段后指纹改变，旧数据无法解码，CacheClient按未命中处理并重新加载
+ * 正文超过阈值时用Deflate压缩，压缩后没有变小则不压缩
+ */
+@Component
+public class BinaryCacheCodec implements CacheCodec {
+
+    // 格式版本，写在第一个字节，与JSON的首字节 '{' 不同
+    private static final byte VERSION = 1;
+
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int FLAG_LOGICAL = 2;
+    private static final int FLAG_REBUILD_COST = 4;
+
+    // 压缩阈值（字节），不大于0时不压缩
+    private final int compressThreshold;
+
+    // 类型 -> 字段布局
+    private final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    public BinaryCacheCodec(@Value("${qingshan.cache.codec.compress-threshold:1024}") int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public String name() {
+        return "binary";
+    }
+
+    @Override
+    public boolean canDecode(byte[] data) {
+        return data[0] == VERSION;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return write(value, null, null);
+    }
+
+    @Override
+    public <T> T decode(byte[] data, Class<T> type) {
+        Input in = open(data);
+        if ((data[1] & FLAG_LOGICAL) != 0) {
+            in.readDateTime();
+        }
+        if ((data[1] & FLAG_REBUILD_COST) != 0) {
+            in.readVarLong();
+        }
+        return type.cast(schema(type).read(in));
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        return write(redisData.getData(), redisData.getExpireTime(), redisData.getRebuildCost());
+    }
+
+    @Override
+    public RedisData decodeLogical(byte[] data, Class<?> type) {
+        Input in = open(data);
+        RedisData redisData = new RedisData();
+        if ((data[1] & FLAG_LOGICAL) != 0) {
+            redisData.setExpireTime(in.readDateTime());
+        }
+        if ((data[1] & FLAG_REBUILD_COST) != 0) {
+            redisData.setRebuildCost(in.readVarLong());
+        }
+        redisData.setData(schema(type).read(in));
+        return redisData;
+    }
+
+    private byte[] write(Object value, LocalDateTime expireTime, Long rebuildCost) {
+        Schema schema = schema(value.getClass());
+        Output body = new Output(256);
+        int flags = 0;
+        if (expireTime != null) {
+            body.writeDateTime(expireTime);
+            flags |= FLAG_LOGICAL;
+        }
+        if (rebuildCost != null) {
+            body.writeVarLong(rebuildCost);
+            flags |= FLAG_REBUILD_COST;
+        }
+        body.writeFixedInt(schema.fingerprint);
+        schema.write(value, body);
+
+        if (compressThreshold > 0 && body.size >= compressThreshold) {
+            Deflater deflater = deflaters.get();
+            deflater.reset();
+            deflater.setInput(body.bytes, 0, body.size);
+            deflater.finish();
+            Output out = new Output(body.size);
+            out.writeByte(VERSION);
+            out.writeByte(flags | FLAG_COMPRESSED);
+            out.writeVarLong(body.size);
+            // 压缩后的长度不超过不压缩时的长度，写不下说明压缩后没有变小，不压缩
+            int limit = body.size + 2;
+            out.ensure(limit - out.size);
+            while (!deflater.finished() && out.size < limit) {
+                out.size += deflater.deflate(out.bytes, out.size, limit - out.size);
+            }
+            if (deflater.finished()) {
+                return out.toByteArray();
+            }
+        }
+        Output out = new Output(body.size + 2);
+        out.writeByte(VERSION);
+        out.writeByte(flags);
+        out.writeBytes(body.bytes, 0, body.size);
+        return out.toByteArray();
+    }
+
+    /**
+     * 解析版本与标志位，返回正文的读取位置，压缩的数据先解压
+     */
+    private Input open(byte[] data) {
+        if (data.length < 2 || data[0] != VERSION) {
+            throw new IllegalArgumentException("不支持的缓存数据版本：" + (data.length == 0 ? "" : data[0]));
+        }
+        Input in = new Input(data, 2);
+        if ((data[1] & FLAG_COMPRESSED) != 0) {
+            int length = (int) in.readVarLong();
+            byte[] body = new byte[length];
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(data, in.position, data.length - in.position);
+            try {
+                if (inflater.inflate(body) != length) {
+                    throw new IllegalArgumentException("缓存数据解压后的长度不正确");
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("缓存数据解压失败", e);
+            }
+            in = new Input(body, 0);
+        }
+        return in;
+    }
+
+    private Schema schema(Class<?> type) {
+        return schemas.computeIfAbsent(type, Schema::new);
+    }
+
+    /**
+     * 字段类型，基本类型与包装类型按同一种方式编码
+     */
+    private enum Kind {
+        LONG, INT, DOUBLE, BOOLEAN, STRING, DATE_TIME,
+        // 其他类型的字段按JSON字符串写入
+        JSON;
+
+        static Kind of(Class<?> type) {
+            if (type == Long.class || type == long.class) {
+                return LONG;
+            }
+            if (type == Integer.class || type == int.class) {
+                return INT;
+            }
+            if (type == Double.class || type == double.class) {
+                return DOUBLE;
+            }
+            if (type == Boolean.class || type == boolean.class) {
+                return BOOLEAN;
+            }
+            if (type == String.class) {
+                return STRING;
+            }
+            if (type == LocalDateTime.class) {
+                return DATE_TIME;
+            }
+            return JSON;
+        }
+    }
+
+    /**
+     * 一个类的字段布局：所有非静态、非transient的字段（包括父类），按字段名排序
+     */
+    private static class Schema {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final Kind[] kinds;
+        private final int fingerprint;
+
+        Schema(Class<?> type) {
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("缓存对象需要无参构造方法：" + type.getName(), e);
+            }
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+                        field.setAccessible(true);
+                        list.add(field);
+                    }
+                }
+            }
+            list.sort(Comparator.comparing(Field::getName));
+            fields = list.toArray(new Field[0]);
+            kinds = new Kind[fields.length];
+            int hash = 1;
+            for (int i = 0; i < fields.length; i++) {
+                kinds[i] = Kind.of(fields[i].getType());
+                hash = 31 * hash + fields[i].getName().hashCode();
+                hash = 31 * hash + fields[i].getType().getName().hashCode();
+            }
+            fingerprint = hash;
+        }
+
+        void write(Object value, Output out) {
+            try {
+                Object[] values = new Object[fields.length];
+                byte[] present = new byte[(fields.length + 7) >>> 3];
+                for (int i = 0; i < fields.length; i++) {
+                    values[i] = fields[i].get(value);
+                    if (values[i] != null) {
+                        present[i >>> 3] |= 1 << (i & 7);
+                    }
+                }
+                out.writeBytes(present, 0, present.length);
+                for (int i = 0; i < fields.length; i++) {
+                    if (values[i] != null) {
+                        writeValue(kinds[i], values[i], out);
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        Object read(Input in) {
+            if (in.readFixedInt() != fingerprint) {
+                throw new IllegalArgumentException("缓存数据的字段布局与当前类不一致：" + constructor.getDeclaringClass().getName());
+            }
+            try {
+                Object value = constructor.newInstance();
+                byte[] present = in.readBytes((fields.length + 7) >>> 3);
+                for (int i = 0; i < fields.length; i++) {
+                    if ((present[i >>> 3] & (1 << (i & 7))) != 0) {
+                        fields[i].set(value, readValue(kinds[i], fields[i], in));
+                    }
+                }
+                return value;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static void writeValue(Kind kind, Object value, Output out) {
+            switch (kind) {
+                case LONG:
+                    out.writeVarLong(zigZag((Long) value));
+                    break;
+                case INT:
+                    out.writeVarLong(zigZag((Integer) value));
+                    break;
+                case DOUBLE:
+                    out.writeFixedLong(Double.doubleToRawLongBits((Double) value));
+                    break;
+                case BOOLEAN:
+                    out.writeByte((Boolean) value ? 1 : 0);
+                    break;
+                case STRING:
+                    out.writeString((String) value);
+                    break;
+                case DATE_TIME:
+                    out.writeDateTime((LocalDateTime) value);
+                    break;
+                default:
+                    out.writeString(JSONUtil.toJsonStr(value));
+            }
+        }
+
+        private static Object readValue(Kind kind, Field field, Input in) {
+            switch (kind) {
+                case LONG:
+                    return unZigZag(in.readVarLong());
+                case INT:
+                    return (int) unZigZag(in.readVarLong());
+                case DOUBLE:
+                    return Double.longBitsToDouble(in.readFixedLong());
+                case BOOLEAN:
+                    return in.readByte() != 0;
+                case STRING:
+                    return in.readString();
+                case DATE_TIME:
+                    return in.readDateTime();
+                default:
+                    return JSONUtil.toBean(in.readString(), field.getGenericType(), false);
+            }
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 可扩容的写缓冲
+     */
+    private static class Output {
+        private byte[] bytes;
+        private int size;
+
+        Output(int capacity) {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, size + extra));
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeBytes(byte[] src, int offset, int length) {
+            ensure(length);
+            System.arraycopy(src, offset, bytes, size, length);
+            size += length;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeFixedInt(int value) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeFixedLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length);
+            writeBytes(utf8, 0, utf8.length);
+        }
+
+        /**
+         * 按UTC换算为秒与纳秒，只用于还原同一个LocalDateTime，与时区无关
+         */
+        void writeDateTime(LocalDateTime value) {
+            writeVarLong(zigZag(value.toEpochSecond(ZoneOffset.UTC)));
+            writeVarLong(value.getNano());
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /**
+     * 读缓冲
+     */
+    private static class Input {
+        private final byte[] bytes;
+        private int position;
+
+        Input(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        int readByte() {
+            return bytes[position++];
+        }
+
+        byte[] readBytes(int length) {
+            byte[] value = Arrays.copyOfRange(bytes, position, position + length);
+            position += length;
+            return value;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        int readFixedInt() {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                value = (value << 8) | (bytes[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        long readFixedLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (bytes[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        LocalDateTime readDateTime() {
+            long seconds = unZigZag(readVarLong());
+            return LocalDateTime.ofEpochSecond(seconds, (int) readVarLong(), ZoneOffset.UTC);
+        }
+    }
+}
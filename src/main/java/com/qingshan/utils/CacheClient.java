@@ -1,30 +1,121 @@
 package com.qingshan.utils;
 
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.json.JSONUtil;
-import com.baomidou.mybatisplus.core.toolkit.StringUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static com.qingshan.utils.RedisConstants.*;
 
 /**
  * redis工具类
+ * 两级缓存：先查本地缓存，再查Redis，最后查数据库，支持TTL过期与逻辑过期两种写入方式
  *
  * @author dahezhiquan
  */
 @Slf4j
 @Component
-public class CacheClient {
+public class CacheClient implements MessageListener {
+    // 本地缓存中的空值，防止缓存穿透
+    private static final Object NULL_VALUE = new Object();
+    // 缓存中没有数据
+    private static final Object MISS = new Object();
+
     private final StringRedisTemplate stringRedisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final IdBloomFilter idBloomFilter;
+    private final HotKeyDetector hotKeyDetector;
+
+    // 所有可用的编码，以及写入时使用的编码（qingshan.cache.codec），读取时按首字节识别编码
+    private final List<CacheCodec> codecs;
+    private final CacheCodec codec;
+
+    // 本地缓存，保存反序列化之后的对象，按容量淘汰最久未使用的数据并按时间过期，容量不大于0时关闭
+    // 缓存中的对象会被多个请求共享，调用方不能修改查询到的对象
+    private final LRUCache<String, Object> localCache;
+    private final long localTtl;
+
+    // key前缀 -> 命中统计
+    private final Map<String, HitCounters> hitCounters = new ConcurrentHashMap<>();
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    // 逻辑过期缓存的重建线程池，队列满时放弃本次重建，下一次查询到过期数据时再提交
+    private final ThreadPoolExecutor rebuildExecutor;
+    // 本节点正在重建的key，同一个key只提交一次重建任务
+    private final Set<String> rebuilding = ConcurrentHashMap.newKeySet();
+    // 本节点正在加载的key -> 加载结果，同一个key的并发未命中合并为一次加载
+    private final Map<String, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+
+    // 过期时间的最大抖动比例，写入的过期时间在 [time, time * (1 + ttlJitter)] 之间随机
+    private final double ttlJitter;
+    // XFetch提前重建的系数，越大越早重建，不大于0时只在过期后重建
+    private final double earlyRefreshBeta;
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       MeterRegistry meterRegistry,
+                       IdBloomFilter idBloomFilter,
+                       HotKeyDetector hotKeyDetector,
+                       List<CacheCodec> codecs,
+                       @Value("${qingshan.cache.codec:json}") String codecName,
+                       @Value("${qingshan.cache.local.capacity:10000}") int localCapacity,
+                       @Value("${qingshan.cache.local.ttl:30000}") long localTtl,
+                       @Value("${qingshan.cache.rebuild.threads:4}") int rebuildThreads,
+                       @Value("${qingshan.cache.rebuild.queue-capacity:1000}") int rebuildQueueCapacity,
+                       @Value("${qingshan.cache.ttl-jitter:0.1}") double ttlJitter,
+                       @Value("${qingshan.cache.early-refresh.beta:1.0}") double earlyRefreshBeta) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.idBloomFilter = idBloomFilter;
+        this.hotKeyDetector = hotKeyDetector;
+        this.codecs = codecs;
+        this.codec = codecs.stream()
+                .filter(candidate -> candidate.name().equals(codecName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("不支持的缓存编码：" + codecName));
+        this.localCache = localCapacity > 0 ? new LRUCache<>(localCapacity, localTtl) : null;
+        this.localTtl = localTtl;
+        this.ttlJitter = ttlJitter;
+        this.earlyRefreshBeta = earlyRefreshBeta;
+        if (localCache != null) {
+            Gauge.builder("qingshan.cache.local.size", localCache, LRUCache::size).register(meterRegistry);
+        }
+        this.rebuildExecutor = new ThreadPoolExecutor(rebuildThreads, rebuildThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(rebuildQueueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "cache-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        Gauge.builder("qingshan.cache.rebuild.queue", rebuildExecutor, executor -> executor.getQueue().size())
+                .register(meterRegistry);
+    }
+
+    /**
+     * 项目关闭时停止重建线程池
+     */
+    @PreDestroy
+    private void destroy() {
+        rebuildExecutor.shutdownNow();
     }
 
     /**
@@ -36,7 +127,9 @@ public class CacheClient {
      * @param unit  时间单位
      */
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        // 空值 "" 写入长度为0的数据，防止缓存穿透
+        byte[] data = "".equals(value) ? new byte[0] : codec.encode(value);
+        setRaw(key, data, Expiration.milliseconds(jitter(unit.toMillis(time))));
     }
 
     /**
@@ -48,11 +141,77 @@ public class CacheClient {
      * @param unit  时间单位
      */
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        setWithLogicalExpire(key, value, time, unit, null);
+    }
+
+    /**
+     * 添加key到Redis中，以逻辑过期的方式添加，同时记录重建耗时，用于临近过期时提前重建
+     *
+     * @param key         键
+     * @param value       值
+     * @param time        过期时间
+     * @param unit        时间单位
+     * @param rebuildCost 重建耗时（毫秒），为null时只在过期后重建
+     */
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, Long rebuildCost) {
         // 设置逻辑过期对象
         RedisData redisData = new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value));
+        redisData.setExpireTime(LocalDateTime.now().plus(Duration.ofMillis(jitter(unit.toMillis(time)))));
+        redisData.setRebuildCost(rebuildCost);
+        setRaw(key, codec.encodeLogical(redisData), Expiration.persistent());
+    }
+
+    /**
+     * 删除缓存，同时清除各节点的本地缓存
+     * 在事务中调用时，事务提交后再删除一次，防止提交之前其他请求把旧数据重新写回缓存
+     *
+     * @param key 键
+     */
+    public void delete(String key) {
+        invalidate(key);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    invalidate(key);
+                }
+            });
+        }
+    }
+
+    private void invalidate(String key) {
+        stringRedisTemplate.delete(key);
+        evictLocal(key);
+    }
+
+    /**
+     * 清除本节点的本地缓存与热点副本，并通知其他节点清除，不删除Redis中的数据
+     * 用于Redis中的数据已经直接修改（例如点赞集合），只需要让各节点的副本失效的场景
+     *
+     * @param key 键
+     */
+    public void evictLocal(String key) {
+        if (localCache == null && !hotKeyDetector.isEnabled()) {
+            return;
+        }
+        removeLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    private void removeLocal(String key) {
+        if (localCache != null) {
+            localCache.remove(key);
+        }
+        hotKeyDetector.evictCopy(key);
+    }
+
+    /**
+     * 接收其他节点广播的缓存失效消息，清除本地缓存
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        removeLocal(new String(message.getBody(), StandardCharsets.UTF_8));
     }
 
     /**
@@ -70,35 +229,31 @@ public class CacheClient {
      */
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 从redis查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 判断缓存查询结果是否真实存在
-        if (StringUtils.isNotBlank(json)) {
-            // 此缓存存在，直接返回结果
-            return JSONUtil.toBean(json, type);
-        }
-
-        // 判断命中的是否为空值 ""，防止缓存穿透现象
-        if ("".equals(json)) {
+        HitCounters counters = hitCounters(keyPrefix);
+        // 布隆过滤器判断id一定不存在
+        if (!idBloomFilter.mightContainCached(keyPrefix, id)) {
+            counters.rejected.increment();
             return null;
         }
-
-        // 缓存中信息不存在，根据id查询数据库
-        R r = dbFallback.apply(id);
-        // 查询数据库不存在，返回错误
-        if (r == null) {
-            // 将null值写入Redis，防止缓存穿透问题
-            this.set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
+        // 先查本地缓存
+        Object local = getLocal(key);
+        if (local != null) {
+            counters.local.increment();
+            return local == NULL_VALUE ? null : type.cast(local);
         }
-        // 查询数据库存在，写入数据到Redis中
-        this.set(key, r, time, unit);
-        // 返回数据给前端
-        return r;
+        // 从redis查询缓存，命中空值 "" 时返回null，防止缓存穿透现象
+        Object cached = getFromRedis(key, type);
+        if (cached != MISS) {
+            counters.redis.increment();
+            return type.cast(cached);
+        }
+        // 缓存中信息不存在，根据id查询数据库，本节点同一个key同时只有一个请求查询
+        return type.cast(singleFlight(key, counters, () -> loadAndSet(key, id, dbFallback, time, unit)));
     }
 
     /**
      * 根据id获取缓存数据，顺便解决缓存穿透 + 缓存击穿问题
+     * 本节点上同一个key的并发请求合并为一次加载，只有加载的请求去竞争分布式互斥锁，其他请求等待加载结果
      *
      * @param keyPrefix  存入Reids中的key前缀字符串
      * @param id         查询的id
@@ -112,52 +267,517 @@ public class CacheClient {
      */
     public  <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 从redis查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 判断缓存查询结果是否存在
-        if (StringUtils.isNotBlank(json)) {
-            // 缓存存在，直接返回结果
-            return JSONUtil.toBean(json, type);
+        HitCounters counters = hitCounters(keyPrefix);
+        // 布隆过滤器判断id一定不存在
+        if (!idBloomFilter.mightContainCached(keyPrefix, id)) {
+            counters.rejected.increment();
+            return null;
+        }
+        // 先查本地缓存
+        Object local = getLocal(key);
+        if (local != null) {
+            counters.local.increment();
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
+        // 从redis查询缓存，命中空值 "" 时返回null，防止缓存穿透
+        Object cached = getFromRedis(key, type);
+        if (cached != MISS) {
+            counters.redis.increment();
+            return type.cast(cached);
         }
+        // 实现缓存重建，获取互斥锁后查询数据库
+        return type.cast(singleFlight(key, counters, () -> loadWithMutex(key,
+                () -> getFromRedis(key, type),
+                () -> loadAndSet(key, id, dbFallback, time, unit))));
+    }
 
-        // 判断命中的是否为空值 ""，防止缓存穿透
-        if ("".equals(json)) {
+    /**
+     * 根据id获取逻辑过期的缓存数据，解决缓存击穿问题，热点数据的查询不会等待数据库
+     * 数据逻辑过期后直接返回旧数据，同时提交异步重建，重建由分布式锁保证同一时间只有一个节点查询数据库
+     * 缓存中没有数据（未预热或者已被删除）时查询数据库并写入缓存，只有这一次查询会访问数据库
+     *
+     * @param keyPrefix  存入Reids中的key前缀字符串
+     * @param id         查询的id
+     * @param type       实体对象的类型
+     * @param dbFallback 函数式接口对象，对应反馈查询数据库的操作
+     * @param time       逻辑过期时间
+     * @param unit       逻辑过期时间单位
+     * @param <R>        查询对象类型泛型
+     * @param <ID>       查询的ID的类型泛型
+     * @return 查询数据对象
+     */
+    public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        HitCounters counters = hitCounters(keyPrefix);
+        // 布隆过滤器判断id一定不存在
+        if (!idBloomFilter.mightContainCached(keyPrefix, id)) {
+            counters.rejected.increment();
             return null;
         }
+        // 先查本地缓存，本地缓存中保存逻辑过期时间与反序列化之后的数据
+        Object cached = getLocal(key);
+        boolean local = cached != null;
+        if (!local) {
+            // 从redis查询缓存
+            cached = getLogicalFromRedis(key, type);
+        } else if (cached == NULL_VALUE) {
+            cached = null;
+        }
+        if (cached == MISS) {
+            // 缓存中没有数据（或者是以TTL方式写入的旧格式数据），获取互斥锁后查询数据库并写入缓存
+            return type.cast(singleFlight(key, counters, () -> loadWithMutex(key,
+                    () -> {
+                        Object redisData = getLogicalFromRedis(key, type);
+                        return redisData instanceof RedisData ? ((RedisData) redisData).getData() : redisData;
+                    },
+                    () -> {
+                        long start = System.currentTimeMillis();
+                        R r = dbFallback.apply(id);
+                        if (r == null) {
+                            // 将null值写入Redis，防止缓存穿透问题
+                            this.set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                            putLocal(key, null);
+                            return null;
+                        }
+                        this.setWithLogicalExpire(key, r, time, unit, System.currentTimeMillis() - start);
+                        return r;
+                    })));
+        }
+        if (cached == null) {
+            (local ? counters.local : counters.redis).increment();
+            return null;
+        }
+        RedisData redisData = (RedisData) cached;
+        if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+            (local ? counters.local : counters.redis).increment();
+            if (shouldRefreshEarly(redisData)) {
+                // 临近过期，提前异步重建
+                counters.early.increment();
+                rebuildAsync(keyPrefix, id, type, dbFallback, time, unit, redisData.getExpireTime());
+            }
+        } else {
+            // 已经过期，返回旧数据并异步重建
+            counters.stale.increment();
+            rebuildAsync(keyPrefix, id, type, dbFallback, time, unit, redisData.getExpireTime());
+        }
+        return type.cast(redisData.getData());
+    }
 
-        R r = null;
-        try {
-            // 实现缓存重建
-            // 获取互斥锁
-            boolean isLock = tryLock(LOCK_SHOP_KEY + id);
-            // 判断是否取锁成功
-            if (!isLock) {
-                // 失败，则进入休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+    /**
+     * 根据一批id获取以TTL方式缓存的数据，解决缓存穿透问题
+     * 本地缓存没有命中的id一次MGET查询Redis，Redis也没有命中的id一次查询数据库，再用管道一次写回Redis，
+     * 往返次数与id的数量无关；数据库中不存在的id各自写入空值。批量加载不经过合并与互斥锁，适合允许少量重复查询的列表数据
+     *
+     * @param keyPrefix  存入Reids中的key前缀字符串
+     * @param ids        查询的id集合
+     * @param type       实体对象的类型
+     * @param dbFallback 函数式接口对象，根据未命中的id批量查询数据库，返回 id -> 数据
+     * @param time       写入数据到Redis中的时间
+     * @param unit       写入数据到Redis中的时间类型
+     * @param <R>        查询对象类型泛型
+     * @param <ID>       查询的ID的类型泛型
+     * @return id -> 查询数据对象，按ids的顺序排列，不存在的id不包含在内
+     */
+    public <R, ID> Map<ID, R> queryBatch(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                         Function<Collection<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        HitCounters counters = hitCounters(keyPrefix);
+        Map<ID, R> result = new LinkedHashMap<>();
+        // 先查本地缓存，同时去掉重复的id和布隆过滤器判断一定不存在的id
+        List<ID> redisIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!idBloomFilter.mightContainCached(keyPrefix, id)) {
+                counters.rejected.increment();
+                continue;
             }
+            Object local = getLocal(keyPrefix + id);
+            if (local == null) {
+                redisIds.add(id);
+                continue;
+            }
+            counters.local.increment();
+            if (local != NULL_VALUE) {
+                result.put(id, type.cast(local));
+            }
+        }
+        if (redisIds.isEmpty()) {
+            return sortByIds(result, ids);
+        }
+        // 一次MGET查询Redis
+        List<byte[]> values = mGetRaw(redisIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList()));
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < redisIds.size(); i++) {
+            ID id = redisIds.get(i);
+            Object cached = decode(keyPrefix + id, values == null ? null : values.get(i), type);
+            if (cached == MISS) {
+                missIds.add(id);
+                continue;
+            }
+            counters.redis.increment();
+            if (cached != null) {
+                result.put(id, type.cast(cached));
+            }
+        }
+        if (missIds.isEmpty()) {
+            return sortByIds(result, ids);
+        }
+        // 一次查询数据库
+        counters.miss.increment(missIds.size());
+        Map<ID, R> loaded = dbFallback.apply(Collections.unmodifiableList(missIds));
+        // 管道写回Redis，数据库中不存在的id写入空值，防止缓存穿透
+        Map<byte[], byte[]> data = new LinkedHashMap<>();
+        for (ID id : missIds) {
+            String key = keyPrefix + id;
+            R r = loaded == null ? null : loaded.get(id);
+            data.put(key.getBytes(StandardCharsets.UTF_8), r == null ? new byte[0] : codec.encode(r));
+            putLocal(key, r);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        long nullTtl = TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL);
+        long ttl = unit.toMillis(time);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            data.forEach((key, value) -> connection.set(key, value,
+                    Expiration.milliseconds(jitter(value.length == 0 ? nullTtl : ttl)), RedisStringCommands.SetOption.upsert()));
+            return null;
+        });
+        return sortByIds(result, ids);
+    }
 
-            // 缓存中信息不存在，根据id查询数据库
-            r = dbFallback.apply(id);
+    /**
+     * 按查询时id的顺序排列结果
+     */
+    private static <R, ID> Map<ID, R> sortByIds(Map<ID, R> result, Collection<ID> ids) {
+        Map<ID, R> sorted = new LinkedHashMap<>(result.size() * 2);
+        for (ID id : ids) {
+            R r = result.get(id);
+            if (r != null) {
+                sorted.put(id, r);
+            }
+        }
+        return sorted;
+    }
 
-            // 查询数据库不存在，返回错误
-            if (r == null) {
-                // 将null值写入Redis，防止缓存穿透问题
-                this.set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
+    /**
+     * XFetch：以 -重建耗时 * beta * ln(random) 作为提前量，距离过期越近、重建耗时越长，提前重建的概率越大
+     * 各个请求独立随机，大量key同时临近过期时重建被分散到过期之前的一段时间内
+     */
+    private boolean shouldRefreshEarly(RedisData redisData) {
+        Long rebuildCost = redisData.getRebuildCost();
+        if (earlyRefreshBeta <= 0 || rebuildCost == null || rebuildCost <= 0) {
+            return false;
+        }
+        double gap = -rebuildCost * earlyRefreshBeta * Math.log(ThreadLocalRandom.current().nextDouble());
+        return LocalDateTime.now().plus(Duration.ofMillis((long) gap)).isAfter(redisData.getExpireTime());
+    }
+
+    /**
+     * 过期时间增加随机抖动，同一批写入的数据不会在同一时刻过期
+     *
+     * @param millis 过期时间（毫秒）
+     * @return 增加抖动后的过期时间（毫秒）
+     */
+    private long jitter(long millis) {
+        if (ttlJitter <= 0) {
+            return millis;
+        }
+        return millis + ThreadLocalRandom.current().nextLong((long) (millis * ttlJitter) + 1);
+    }
+
+    /**
+     * 查询Redis中以TTL方式写入的缓存，命中后写入本地缓存
+     *
+     * @return 缓存的数据，缓存的空值返回null，没有缓存时返回MISS
+     */
+    private <R> Object getFromRedis(String key, Class<R> type) {
+        return decode(key, getRaw(key), type);
+    }
+
+    /**
+     * 解码以TTL方式写入的缓存，命中后写入本地缓存
+     *
+     * @return 缓存的数据，缓存的空值返回null，没有缓存或者无法解码时返回MISS
+     */
+    private <R> Object decode(String key, byte[] data, Class<R> type) {
+        if (data == null) {
+            return MISS;
+        }
+        if (data.length == 0) {
+            putLocal(key, null);
+            return null;
+        }
+        CacheCodec decoder = decoderOf(key, data);
+        if (decoder == null) {
+            return MISS;
+        }
+        try {
+            R r = decoder.decode(data, type);
+            putLocal(key, r);
+            return r;
+        } catch (RuntimeException e) {
+            log.warn("缓存数据无法解码，按未命中处理：{}", key, e);
+            return MISS;
+        }
+    }
+
+    /**
+     * 查询Redis中以逻辑过期方式写入的缓存，命中后写入本地缓存，本地缓存不超过逻辑过期时间，过期后回到Redis确认是否已经重建
+     *
+     * @return 数据已经反序列化的RedisData，缓存的空值返回null，没有缓存或者格式不符时返回MISS
+     */
+    private <R> Object getLogicalFromRedis(String key, Class<R> type) {
+        byte[] data = getRaw(key);
+        if (data != null && data.length == 0) {
+            putLocal(key, null);
+            return null;
+        }
+        RedisData redisData = decodeLogical(key, data, type);
+        if (redisData == null || redisData.getExpireTime() == null) {
+            return MISS;
+        }
+        long remaining = Duration.between(LocalDateTime.now(), redisData.getExpireTime()).toMillis();
+        if (remaining > 0) {
+            putLocal(key, redisData, remaining);
+        }
+        return redisData;
+    }
+
+    /**
+     * 查询数据库并以TTL的方式写入缓存，数据不存在时写入空值，防止缓存穿透问题
+     */
+    private <R, ID> R loadAndSet(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        R r = dbFallback.apply(id);
+        if (r == null) {
+            this.set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            putLocal(key, null);
+            return null;
+        }
+        this.set(key, r, time, unit);
+        putLocal(key, r);
+        return r;
+    }
+
+    /**
+     * 合并本节点上同一个key的并发加载，第一个请求执行加载，其他请求等待同一个结果，加载完成后一起返回
+     *
+     * @param key    缓存的key
+     * @param loader 加载数据的操作
+     * @return 加载的数据
+     */
+    private Object singleFlight(String key, HitCounters counters, Supplier<Object> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = loading.putIfAbsent(key, future);
+        if (inFlight != null) {
+            counters.coalesced.increment();
+            try {
+                return inFlight.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
             }
-            // 查询数据库存在，写入数据到Redis中
-            this.set(key, r, time, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+        }
+        counters.miss.increment();
+        try {
+            Object value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    /**
+     * 获取分布式互斥锁之后加载数据，同一时间只有一个节点查询数据库
+     * 没有获取到锁时等待其他节点写入缓存，每次重试前重新查询缓存，写入后直接返回
+     *
+     * @param key         缓存的key
+     * @param cacheReader 查询缓存的操作，没有缓存时返回MISS
+     * @param loader      查询数据库并写入缓存的操作
+     * @return 加载的数据
+     */
+    private Object loadWithMutex(String key, Supplier<Object> cacheReader, Supplier<Object> loader) {
+        String lockKey = LOCK_CACHE_REBUILD_KEY + key;
+        while (!tryLock(lockKey)) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            Object cached = cacheReader.get();
+            if (cached != MISS) {
+                return cached;
+            }
+        }
+        try {
+            // 获取锁之后再次查询缓存，锁可能是其他节点写入缓存后刚刚释放的
+            Object cached = cacheReader.get();
+            return cached != MISS ? cached : loader.get();
         } finally {
             // 释放互斥锁
-            unlock(LOCK_SHOP_KEY + id);
+            unlock(lockKey);
+        }
+    }
+
+    /**
+     * 解码逻辑过期的缓存，没有数据或者无法解码时返回null
+     */
+    private RedisData decodeLogical(String key, byte[] data, Class<?> type) {
+        CacheCodec decoder = data == null || data.length == 0 ? null : decoderOf(key, data);
+        if (decoder == null) {
+            return null;
+        }
+        try {
+            return decoder.decodeLogical(data, type);
+        } catch (RuntimeException e) {
+            log.warn("缓存数据无法解码，按未命中处理：{}", key, e);
+            return null;
         }
-        // 返回数据给前端
-        return r;
     }
 
+    /**
+     * 按首字节找到数据的编码
+     */
+    private CacheCodec decoderOf(String key, byte[] data) {
+        for (CacheCodec candidate : codecs) {
+            if (candidate.canDecode(data)) {
+                return candidate;
+            }
+        }
+        log.warn("缓存数据的编码无法识别，按未命中处理：{}", key);
+        return null;
+    }
+
+    private byte[] getRaw(String key) {
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.get(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private List<byte[]> mGetRaw(List<String> keys) {
+        byte[][] rawKeys = keys.stream().map(key -> key.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+        return stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+    }
+
+    private void setRaw(String key, byte[] value, Expiration expiration) {
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.set(key.getBytes(StandardCharsets.UTF_8), value, expiration, RedisStringCommands.SetOption.upsert()));
+    }
+
+    /**
+     * 提交逻辑过期缓存的异步重建，同一个key在本节点上同时只有一个重建任务，各节点之间通过分布式锁互斥
+     *
+     * @param expireTime 读取到的逻辑过期时间，缓存中的过期时间已经晚于它时说明其他节点已经重建
+     */
+    private <R, ID> void rebuildAsync(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit,
+                                      LocalDateTime expireTime) {
+        String key = keyPrefix + id;
+        if (!rebuilding.add(key)) {
+            return;
+        }
+        try {
+            rebuildExecutor.execute(() -> {
+                String lockKey = LOCK_CACHE_REBUILD_KEY + key;
+                try {
+                    if (!tryLock(lockKey)) {
+                        // 其他节点正在重建
+                        return;
+                    }
+                    try {
+                        // 获取锁之后再次确认缓存没有被重建过，其他节点可能刚刚重建完成
+                        RedisData current = decodeLogical(key, getRaw(key), type);
+                        if (current != null && current.getExpireTime() != null
+                                && current.getExpireTime().isAfter(expireTime)) {
+                            return;
+                        }
+                        long start = System.currentTimeMillis();
+                        R r = dbFallback.apply(id);
+                        if (r == null) {
+                            this.set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                        } else {
+                            this.setWithLogicalExpire(key, r, time, unit, System.currentTimeMillis() - start);
+                        }
+                        meterRegistry.counter("qingshan.cache.rebuild", "prefix", keyPrefix, "result", "success").increment();
+                    } finally {
+                        unlock(lockKey);
+                    }
+                    // 通知各节点清除本地缓存中的旧数据
+                    evictLocal(key);
+                } catch (Exception e) {
+                    meterRegistry.counter("qingshan.cache.rebuild", "prefix", keyPrefix, "result", "error").increment();
+                    log.error("重建缓存失败：{}", key, e);
+                } finally {
+                    rebuilding.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 重建任务积压，放弃本次重建，继续返回旧数据
+            rebuilding.remove(key);
+            meterRegistry.counter("qingshan.cache.rebuild", "prefix", keyPrefix, "result", "rejected").increment();
+        }
+    }
+
+    /**
+     * 查询本地缓存，本地缓存没有时再查热点副本；每次查询都经过这里，同时采样key的访问次数
+     * 读取不刷新本地缓存的过期时间，持续访问的数据也会按写入时间过期
+     */
+    private Object getLocal(String key) {
+        boolean hot = hotKeyDetector.record(key);
+        Object value = localCache == null ? null : localCache.get(key, false);
+        return value == null && hot ? hotKeyDetector.getCopy(key) : value;
+    }
+
+    /**
+     * 写入本地缓存，空值的有效期不超过Redis中空值的有效期
+     */
+    private void putLocal(String key, Object value) {
+        if (value == null) {
+            putLocal(key, NULL_VALUE, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+        } else {
+            putLocal(key, value, localTtl);
+        }
+    }
+
+    /**
+     * 写入本地缓存与热点副本，热点key在本地缓存之外再保存一份短期副本，本地缓存被淘汰或者关闭时也不会集中访问同一个Redis key
+     *
+     * @param ttl 数据本身的有效期（毫秒），本地缓存与副本的有效期都不超过它
+     */
+    private void putLocal(String key, Object value, long ttl) {
+        if (localCache != null) {
+            localCache.put(key, value, Math.min(localTtl, ttl));
+        }
+        hotKeyDetector.putCopy(key, value, ttl);
+    }
+
+    private HitCounters hitCounters(String keyPrefix) {
+        return hitCounters.computeIfAbsent(keyPrefix, prefix -> new HitCounters(meterRegistry, prefix));
+    }
+
+    /**
+     * 一个key前缀的命中统计：本地缓存命中、Redis命中、返回逻辑过期的旧数据、未命中（查询数据库）、等待本节点其他请求的加载结果、被布隆过滤器拒绝，
+     * 以及命中后提前重建的次数
+     */
+    private static class HitCounters {
+        private final Counter local;
+        private final Counter redis;
+        private final Counter stale;
+        private final Counter miss;
+        private final Counter coalesced;
+        private final Counter rejected;
+        private final Counter early;
+
+        HitCounters(MeterRegistry meterRegistry, String prefix) {
+            this.local = meterRegistry.counter("qingshan.cache.gets", "prefix", prefix, "result", "local");
+            this.redis = meterRegistry.counter("qingshan.cache.gets", "prefix", prefix, "result", "redis");
+            this.stale = meterRegistry.counter("qingshan.cache.gets", "prefix", prefix, "result", "stale");
+            this.miss = meterRegistry.counter("qingshan.cache.gets", "prefix", prefix, "result", "miss");
+            this.coalesced = meterRegistry.counter("qingshan.cache.gets", "prefix", prefix, "result", "coalesced");
+            this.rejected = meterRegistry.counter("qingshan.cache.gets", "prefix", prefix, "result", "rejected");
+            this.early = meterRegistry.counter("qingshan.cache.early-refresh", "prefix", prefix);
+        }
+    }
 
     /**
      * 尝试获取锁，解决缓存击穿问题方案
@@ -192,7 +812,8 @@ public class CacheClient {
      */
     public <R, ID> void saveDataToRedis(String keyPrefix, ID id, Long expireSeconds, TimeUnit unit, Function<ID, R> dbFallback) {
         // 根据id查询数据库
+        long start = System.currentTimeMillis();
         R r = dbFallback.apply(id);
-        this.setWithLogicalExpire(keyPrefix + id, r, expireSeconds, unit);
+        this.setWithLogicalExpire(keyPrefix + id, r, expireSeconds, unit, System.currentTimeMillis() - start);
     }
 }
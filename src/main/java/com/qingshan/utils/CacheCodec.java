@@ -0,0 +1,57 @@
+package com.qingshan.utils;
+
+/**
+ * 缓存数据的编码方式，CacheClient按配置选择一种编码写入，读取时按数据的首字节识别编码
+ * 每种编码的首字节互不相同，切换编码时旧数据仍然可以读取，各节点升级完成后再切换写入的编码
+ * 缓存对象只能是有无参构造方法的实体类（JSON编码的首字节固定为 '{'），集合、字符串、数字等类型不支持
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码名称，对应配置项 qingshan.cache.codec
+     */
+    String name();
+
+    /**
+     * 根据首字节判断是否是本编码写入的数据
+     *
+     * @param data Redis中的数据，长度大于0
+     * @return 是否可以解码
+     */
+    boolean canDecode(byte[] data);
+
+    /**
+     * 编码以TTL方式缓存的数据
+     *
+     * @param value 缓存对象
+     * @return 编码后的数据
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码以TTL方式缓存的数据
+     *
+     * @param data 编码后的数据
+     * @param type 缓存对象的类型
+     * @param <T>  缓存对象类型泛型
+     * @return 缓存对象
+     */
+    <T> T decode(byte[] data, Class<T> type);
+
+    /**
+     * 编码以逻辑过期方式缓存的数据
+     *
+     * @param redisData 逻辑过期时间与缓存对象
+     * @return 编码后的数据
+     */
+    byte[] encodeLogical(RedisData redisData);
+
+    /**
+     * 解码以逻辑过期方式缓存的数据，数据不是以逻辑过期方式写入时逻辑过期时间为null
+     *
+     * @param data 编码后的数据
+     * @param type 缓存对象的类型
+     * @return 逻辑过期时间与解码后的缓存对象
+     */
+    RedisData decodeLogical(byte[] data, Class<?> type);
+}
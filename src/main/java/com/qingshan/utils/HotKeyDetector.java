@@ -0,0 +1,264 @@
+package com.qingshan.utils;
+
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.lang.hash.MurmurHash;
+import com.qingshan.dto.HotKeyDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 热点key探测，按采样率记录Redis key的访问，用count-min sketch估计滑动窗口内的访问次数
+ * 滑动窗口由若干个时间片组成，每个时间片一个sketch，定时淘汰最旧的时间片；估计次数最多的 top-K 个key作为候选
+ * 候选key的估计次数超过阈值时升级为热点key，在本节点保存一份短期副本，不再每次访问Redis；低于阈值的一半时降级
+ * 副本的有效期很短，数据更新时本节点立即清除，其他节点最多在副本有效期内返回旧数据
+ *
+ * @author dahezhiquan
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+    // sketch的行数（哈希函数个数）
+    private static final int DEPTH = 4;
+    // 降级阈值占升级阈值的比例，避免在阈值附近反复升降级
+    private static final double DEMOTE_RATIO = 0.5;
+
+    private final boolean enabled;
+    private final double sampleRate;
+    private final long threshold;
+    private final int width;
+    private final int topK;
+    private final long copyTtl;
+
+    // 滑动窗口的时间片，每个时间片是一个 DEPTH * width 的计数矩阵
+    private final AtomicLongArray[] slices;
+    private volatile int current;
+
+    // 候选key -> 窗口内估计的访问次数
+    private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+    // 热点key -> 升级时间
+    private final Map<String, LocalDateTime> hotKeys = new ConcurrentHashMap<>();
+    // 热点key的本地副本
+    private final LRUCache<String, Object> copies;
+
+    private final Counter promoted;
+    private final Counter demoted;
+
+    public HotKeyDetector(MeterRegistry meterRegistry,
+                          @Value("${qingshan.hotkey.enabled:true}") boolean enabled,
+                          @Value("${qingshan.hotkey.sample-rate:0.1}") double sampleRate,
+                          @Value("${qingshan.hotkey.threshold:2000}") long threshold,
+                          @Value("${qingshan.hotkey.width:2048}") int width,
+                          @Value("${qingshan.hotkey.window-slices:5}") int windowSlices,
+                          @Value("${qingshan.hotkey.top-k:32}") int topK,
+                          @Value("${qingshan.hotkey.copy-ttl:1000}") long copyTtl) {
+        this.enabled = enabled;
+        this.sampleRate = sampleRate;
+        this.threshold = threshold;
+        this.width = width;
+        this.topK = topK;
+        this.copyTtl = copyTtl;
+        this.slices = new AtomicLongArray[windowSlices];
+        for (int i = 0; i < windowSlices; i++) {
+            slices[i] = new AtomicLongArray(DEPTH * width);
+        }
+        this.copies = new LRUCache<>(topK, copyTtl);
+        this.promoted = meterRegistry.counter("qingshan.hotkey.promotions");
+        this.demoted = meterRegistry.counter("qingshan.hotkey.demotions");
+        Gauge.builder("qingshan.hotkey.size", hotKeys, Map::size).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 记录一次key的访问，按采样率计数
+     *
+     * @param key Redis key
+     * @return 是否是热点key
+     */
+    public boolean record(String key) {
+        if (!enabled) {
+            return false;
+        }
+        if (ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            int[] indexes = indexes(key);
+            AtomicLongArray slice = slices[current];
+            for (int index : indexes) {
+                slice.incrementAndGet(index);
+            }
+            offer(key, estimate(indexes));
+        }
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 热点key优先读取本地副本，没有副本时加载并保存副本；非热点key直接加载
+     *
+     * @param key    Redis key
+     * @param loader 访问Redis的操作
+     * @param <T>    数据类型泛型
+     * @return 数据
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getOrLoad(String key, Supplier<T> loader) {
+        if (record(key)) {
+            Object copy = copies.get(key, false);
+            if (copy != null) {
+                return (T) copy;
+            }
+        }
+        T value = loader.get();
+        if (value != null) {
+            putCopy(key, value, copyTtl);
+        }
+        return value;
+    }
+
+    /**
+     * 查询热点key的本地副本
+     *
+     * @param key Redis key
+     * @return 副本，不是热点key或者没有副本时返回null
+     */
+    public Object getCopy(String key) {
+        return hotKeys.containsKey(key) ? copies.get(key, false) : null;
+    }
+
+    /**
+     * 热点key保存本地副本，非热点key忽略
+     *
+     * @param key   Redis key
+     * @param value 数据
+     * @param ttl   数据本身的有效期（毫秒），副本的有效期不超过它
+     */
+    public void putCopy(String key, Object value, long ttl) {
+        if (hotKeys.containsKey(key)) {
+            copies.put(key, value, Math.min(copyTtl, ttl));
+        }
+    }
+
+    /**
+     * 数据更新时清除本地副本
+     *
+     * @param key Redis key
+     */
+    public void evictCopy(String key) {
+        copies.remove(key);
+    }
+
+    /**
+     * 当前的热点key，按估计的访问次数从高到低排列
+     */
+    public List<HotKeyDTO> hotKeys() {
+        return hotKeys.entrySet().stream()
+                .map(entry -> new HotKeyDTO(entry.getKey(), scale(candidates.getOrDefault(entry.getKey(), 0L)), entry.getValue()))
+                .sorted(Comparator.comparing(HotKeyDTO::getCount).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 滑动窗口前进一个时间片：清空最旧的时间片，重新估计候选key，访问次数回落的热点key降级
+     */
+    @Scheduled(fixedDelayString = "${qingshan.hotkey.slice-interval:2000}")
+    public void rotate() {
+        if (!enabled) {
+            return;
+        }
+        int next = (current + 1) % slices.length;
+        AtomicLongArray slice = slices[next];
+        for (int i = 0; i < slice.length(); i++) {
+            slice.set(i, 0);
+        }
+        current = next;
+        for (String key : candidates.keySet()) {
+            long count = estimate(indexes(key));
+            if (count == 0) {
+                candidates.remove(key);
+            } else {
+                candidates.put(key, count);
+            }
+        }
+        for (String key : hotKeys.keySet()) {
+            Long count = candidates.get(key);
+            if (count == null || scale(count) < threshold * DEMOTE_RATIO) {
+                hotKeys.remove(key);
+                copies.remove(key);
+                demoted.increment();
+                log.info("热点key降级：{}", key);
+            }
+        }
+    }
+
+    /**
+     * 更新候选key，候选已满时替换估计次数最少的key；估计次数超过阈值的候选key升级为热点key
+     * 并发更新时候选数量可能短暂超过 top-K，不影响结果
+     */
+    private void offer(String key, long count) {
+        if (candidates.containsKey(key) || candidates.size() < topK) {
+            candidates.put(key, count);
+        } else {
+            Map.Entry<String, Long> min = candidates.entrySet().stream()
+                    .min(Map.Entry.comparingByValue())
+                    .orElse(null);
+            if (min == null || min.getValue() >= count || !candidates.remove(min.getKey(), min.getValue())) {
+                return;
+            }
+            candidates.put(key, count);
+        }
+        if (scale(count) >= threshold && hotKeys.putIfAbsent(key, LocalDateTime.now()) == null) {
+            promoted.increment();
+            log.info("热点key升级：{}，估计访问次数{}", key, scale(count));
+        }
+    }
+
+    /**
+     * 估计窗口内的采样次数：每个时间片取各行计数的最小值，再累加所有时间片
+     */
+    private long estimate(int[] indexes) {
+        long total = 0;
+        for (AtomicLongArray slice : slices) {
+            long min = Long.MAX_VALUE;
+            for (int index : indexes) {
+                min = Math.min(min, slice.get(index));
+            }
+            total += min;
+        }
+        return total;
+    }
+
+    /**
+     * 采样次数换算为访问次数
+     */
+    private long scale(long sampled) {
+        return (long) (sampled / sampleRate);
+    }
+
+    /**
+     * 计算key在每一行中的下标，使用128位MurmurHash的两半做双重哈希
+     */
+    private int[] indexes(String key) {
+        long[] hash = MurmurHash.hash128(key.getBytes(StandardCharsets.UTF_8));
+        int[] indexes = new int[DEPTH];
+        long combined = hash[0];
+        for (int i = 0; i < DEPTH; i++) {
+            combined += hash[1];
+            indexes[i] = i * width + (int) ((combined & Long.MAX_VALUE) % width);
+        }
+        return indexes;
+    }
+}
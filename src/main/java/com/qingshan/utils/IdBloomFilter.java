@@ -0,0 +1,389 @@
+package com.qingshan.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.qingshan.mapper.BlogMapper;
+import com.qingshan.mapper.ShopMapper;
+import com.qingshan.mapper.UserMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+import static com.qingshan.utils.RedisConstants.*;
+import static com.qingshan.utils.SystemConstants.BLOOM_BUILD_PAGE_SIZE;
+
+/**
+ * 商户、博客、用户id的布隆过滤器，防止缓存穿透
+ * 过滤器保存在Redis位图中，由一个节点按id分页遍历数据库表构建，各节点在本地保存一份镜像，查询时只访问本地镜像
+ * 新增数据时写入Redis位图并广播，各节点收到后更新本地镜像，另外定期从Redis全量刷新，防止错过广播
+ * 本地镜像尚未加载或者写入失败时不拒绝任何id，只会退回到缓存空值的方式防止穿透；写入失败的过滤器在下一次定期刷新时重建
+ * 直接在数据库中插入的数据（没有经过 add）：定期刷新时补上大于构建时最大id的新id，自增id可以自动补上；
+ * 手动指定了较小id的数据要等到每天的定期重建，或者删除Redis中的位图触发重建，在此之前查询会被拒绝
+ */
+@Slf4j
+@Component
+public class IdBloomFilter implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedissonClient redissonClient;
+    private final MeterRegistry meterRegistry;
+
+    private final boolean enabled;
+    // 位图的位数（64的整数倍）与哈希函数个数，由预计的数据量与误判率计算
+    private final long bits;
+    private final int hashes;
+
+    // 过滤器key -> 按id分页读取数据库中的id
+    private final Map<String, Function<Long, List<Object>>> sources = new LinkedHashMap<>();
+    // 缓存key前缀 -> 过滤器key
+    private final Map<String, String> cachePrefixes = new HashMap<>();
+    // 过滤器key -> 本地镜像
+    private final Map<String, AtomicLongArray> mirrors = new ConcurrentHashMap<>();
+    // 写入失败、Redis位图中缺少部分id的过滤器，重建之前不再加载
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+    public IdBloomFilter(ShopMapper shopMapper,
+                         BlogMapper blogMapper,
+                         UserMapper userMapper,
+                         StringRedisTemplate stringRedisTemplate,
+                         RedissonClient redissonClient,
+                         MeterRegistry meterRegistry,
+                         @Value("${qingshan.bloom.enabled:true}") boolean enabled,
+                         @Value("${qingshan.bloom.expected-insertions:1000000}") long expectedInsertions,
+                         @Value("${qingshan.bloom.fpp:0.01}") double fpp) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bits = (optimalBits + 63) / 64 * 64;
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+
+        sources.put(BLOOM_SHOP_KEY, idPages(shopMapper));
+        sources.put(BLOOM_BLOG_KEY, idPages(blogMapper));
+        sources.put(BLOOM_USER_KEY, idPages(userMapper));
+        cachePrefixes.put(CACHE_SHOP_KEY, BLOOM_SHOP_KEY);
+        cachePrefixes.put(CACHE_BLOG_KEY, BLOOM_BLOG_KEY);
+        cachePrefixes.put(CACHE_USER_KEY, BLOOM_USER_KEY);
+    }
+
+    private static <T> Function<Long, List<Object>> idPages(BaseMapper<T> mapper) {
+        return lastId -> mapper.selectObjs(new QueryWrapper<T>()
+                .select("id")
+                .gt("id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + BLOOM_BUILD_PAGE_SIZE));
+    }
+
+    /**
+     * 判断id是否可能存在
+     *
+     * @param filterKey 过滤器key
+     * @param id        id
+     * @return 一定不存在时返回false
+     */
+    public boolean mightContain(String filterKey, Long id) {
+        if (id == null) {
+            return false;
+        }
+        AtomicLongArray mirror = mirrors.get(filterKey);
+        if (mirror == null) {
+            return true;
+        }
+        for (long offset : offsets(id)) {
+            if ((mirror.get((int) (offset >>> 6)) & (1L << offset)) == 0) {
+                meterRegistry.counter("qingshan.bloom.rejected", "filter", filterKey).increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按缓存key前缀判断id是否可能存在，没有对应过滤器的缓存一律返回true
+     *
+     * @param keyPrefix 缓存key前缀
+     * @param id        id
+     * @return 一定不存在时返回false
+     */
+    public boolean mightContainCached(String keyPrefix, Object id) {
+        String filterKey = cachePrefixes.get(keyPrefix);
+        if (filterKey == null || !(id instanceof Number)) {
+            return true;
+        }
+        return mightContain(filterKey, ((Number) id).longValue());
+    }
+
+    /**
+     * 新增数据后写入过滤器并广播，必须在数据可以被查询到之前调用
+     *
+     * @param filterKey 过滤器key
+     * @param id        新增的id
+     */
+    public void add(String filterKey, Long id) {
+        if (!enabled || id == null) {
+            return;
+        }
+        long[] offsets = offsets(id);
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (long offset : offsets) {
+                    stringConnection.setBit(filterKey, offset, true);
+                }
+                return null;
+            });
+            setLocal(filterKey, offsets);
+            stringRedisTemplate.convertAndSend(BLOOM_CHANNEL, filterKey + " " + id);
+        } catch (Exception e) {
+            // 写入失败，Redis位图中可能缺少这个id，本节点不再使用该过滤器，下一次定期刷新时重建
+            dirty.add(filterKey);
+            mirrors.remove(filterKey);
+            log.error("写入布隆过滤器失败：{} {}，需要重建过滤器", filterKey, id, e);
+            try {
+                // 删除位图，其他节点定期刷新时发现位图缺失，同样停止使用并重建
+                stringRedisTemplate.delete(filterKey);
+            } catch (Exception ex) {
+                log.error("删除布隆过滤器失败：{}", filterKey, ex);
+            }
+        }
+    }
+
+    /**
+     * 项目启动完成后加载过滤器，Redis中没有或者参数不一致时构建
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        if (!enabled) {
+            return;
+        }
+        for (String filterKey : sources.keySet()) {
+            try {
+                if (!load(filterKey, false)) {
+                    build(filterKey);
+                }
+            } catch (Exception e) {
+                log.error("加载布隆过滤器失败：{}", filterKey, e);
+            }
+        }
+    }
+
+    /**
+     * 定期从Redis全量刷新本地镜像，补上错过广播的id以及直接插入数据库的新id；Redis中的位图丢失或者写入失败时重新构建
+     */
+    @Scheduled(fixedDelayString = "${qingshan.bloom.refresh-interval:60000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        for (String filterKey : sources.keySet()) {
+            try {
+                if (dirty.contains(filterKey)) {
+                    mirrors.remove(filterKey);
+                    if (build(filterKey)) {
+                        dirty.remove(filterKey);
+                    }
+                } else if (!load(filterKey, true)) {
+                    mirrors.remove(filterKey);
+                    build(filterKey);
+                } else if (catchUp(filterKey)) {
+                    load(filterKey, true);
+                    stringRedisTemplate.convertAndSend(BLOOM_CHANNEL, filterKey);
+                }
+            } catch (Exception e) {
+                log.error("刷新布隆过滤器失败：{}", filterKey, e);
+            }
+        }
+    }
+
+    /**
+     * 定期重建，清除已删除数据的id，降低误判率
+     */
+    @Scheduled(cron = "${qingshan.bloom.rebuild-cron:0 0 4 * * ?}")
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        for (String filterKey : sources.keySet()) {
+            try {
+                build(filterKey);
+            } catch (Exception e) {
+                log.error("重建布隆过滤器失败：{}", filterKey, e);
+            }
+        }
+    }
+
+    /**
+     * 接收其他节点广播的新增id或者重建完成消息，更新本地镜像
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int split = body.indexOf(' ');
+        if (split < 0) {
+            if (!dirty.contains(body)) {
+                load(body, false);
+            }
+            return;
+        }
+        setLocal(body.substring(0, split), offsets(Long.parseLong(body.substring(split + 1))));
+    }
+
+    /**
+     * 从数据库构建过滤器，同一时间只有一个节点构建
+     * 先写入临时key再替换，构建期间旧的过滤器仍然可用；替换之后再补上构建期间新增的id
+     *
+     * @return 其他节点正在构建时返回false
+     */
+    private boolean build(String filterKey) {
+        RLock lock = redissonClient.getLock(LOCK_KEY + "bloom:" + filterKey);
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            String buildingKey = filterKey + ":building";
+            stringRedisTemplate.delete(buildingKey);
+            // 预先分配整个位图，位图长度同时用于校验过滤器参数
+            stringRedisTemplate.opsForValue().setBit(buildingKey, bits - 1, false);
+            long lastId = writeIds(filterKey, buildingKey, 0L);
+            stringRedisTemplate.rename(buildingKey, filterKey);
+            lastId = writeIds(filterKey, filterKey, lastId);
+            stringRedisTemplate.opsForValue().set(filterKey + ":last-id", String.valueOf(lastId));
+
+            load(filterKey, false);
+            stringRedisTemplate.convertAndSend(BLOOM_CHANNEL, filterKey);
+            log.info("构建布隆过滤器完成：{}，位数{}，哈希函数{}个", filterKey, bits, hashes);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 补上大于上次记录的最大id的新id，包括直接插入数据库、没有经过 add 的数据，同一时间只有一个节点执行
+     *
+     * @return 是否写入了新的id
+     */
+    private boolean catchUp(String filterKey) {
+        RLock lock = redissonClient.getLock(LOCK_KEY + "bloom:" + filterKey);
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            String lastIdKey = filterKey + ":last-id";
+            String value = stringRedisTemplate.opsForValue().get(lastIdKey);
+            long lastId = value == null ? 0L : Long.parseLong(value);
+            long newLastId = writeIds(filterKey, filterKey, lastId);
+            if (newLastId == lastId) {
+                return false;
+            }
+            stringRedisTemplate.opsForValue().set(lastIdKey, String.valueOf(newLastId));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 分页读取大于lastId的id写入位图
+     *
+     * @return 读取到的最大id
+     */
+    private long writeIds(String filterKey, String bitmapKey, long lastId) {
+        Function<Long, List<Object>> source = sources.get(filterKey);
+        while (true) {
+            List<Object> ids = source.apply(lastId);
+            if (ids.isEmpty()) {
+                return lastId;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (Object id : ids) {
+                    for (long offset : offsets(((Number) id).longValue())) {
+                        stringConnection.setBit(bitmapKey, offset, true);
+                    }
+                }
+                return null;
+            });
+            lastId = ((Number) ids.get(ids.size() - 1)).longValue();
+            if (ids.size() < BLOOM_BUILD_PAGE_SIZE) {
+                return lastId;
+            }
+        }
+    }
+
+    /**
+     * 从Redis加载位图到本地镜像
+     *
+     * @param merge 是否保留本地镜像中已有的位，定期刷新时保留，防止覆盖刷新期间收到的新增id
+     * @return Redis中没有位图或者位图长度与参数不一致时返回false
+     */
+    private boolean load(String filterKey, boolean merge) {
+        byte[] bitmap = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.get(filterKey.getBytes(StandardCharsets.UTF_8)));
+        if (bitmap == null || bitmap.length != bits / 8) {
+            return false;
+        }
+        // Redis位图中每个字节的高位在前，转换为按位偏移量从低位排列的long
+        long[] words = new long[(int) (bits / 64)];
+        for (int i = 0; i < bitmap.length; i++) {
+            words[i >>> 3] |= (long) (Integer.reverse(bitmap[i] & 0xFF) >>> 24) << ((i & 7) << 3);
+        }
+        AtomicLongArray mirror = new AtomicLongArray(words);
+        AtomicLongArray old = merge ? mirrors.get(filterKey) : null;
+        mirrors.put(filterKey, mirror);
+        if (old != null) {
+            for (int i = 0; i < words.length; i++) {
+                long word = old.get(i);
+                if (word != 0) {
+                    mirror.accumulateAndGet(i, word, (a, b) -> a | b);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void setLocal(String filterKey, long[] offsets) {
+        AtomicLongArray mirror = mirrors.get(filterKey);
+        if (mirror == null) {
+            return;
+        }
+        for (long offset : offsets) {
+            long mask = 1L << offset;
+            mirror.accumulateAndGet((int) (offset >>> 6), mask, (a, b) -> a | b);
+        }
+    }
+
+    /**
+     * 计算id在位图中的偏移量，使用128位MurmurHash的两半做双重哈希
+     */
+    private long[] offsets(long id) {
+        long[] hash = MurmurHash.hash128(ByteBuffer.allocate(Long.BYTES).putLong(id).array());
+        long[] offsets = new long[hashes];
+        long combined = hash[0];
+        for (int i = 0; i < hashes; i++) {
+            combined += hash[1];
+            offsets[i] = (combined & Long.MAX_VALUE) % bits;
+        }
+        return offsets;
+    }
+}
@@ -0,0 +1,48 @@
+package com.qingshan.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSON编码，缓存对象都是实体类，编码后的首字节是 '{'
+ */
+@Component
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public String name() {
+        return "json";
+    }
+
+    @Override
+    public boolean canDecode(byte[] data) {
+        return data[0] == '{';
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] data, Class<T> type) {
+        return JSONUtil.toBean(new String(data, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        return encode(redisData);
+    }
+
+    @Override
+    public RedisData decodeLogical(byte[] data, Class<?> type) {
+        RedisData redisData = decode(data, RedisData.class);
+        if (redisData.getData() instanceof JSONObject) {
+            redisData.setData(((JSONObject) redisData.getData()).toBean(type));
+        }
+        return redisData;
+    }
+}
@@ -0,0 +1,170 @@
+package com.qingshan.utils;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 缓存注解的切面，把 @QingshanCached / @QingshanEvict 转换为CacheClient的调用
+ * 各个服务的缓存统一经过CacheClient，共用布隆过滤器、本地缓存、未命中合并、热点探测与命中统计
+ * 注解只在通过代理调用时生效，类内部调用需要通过 AopContext.currentProxy() 获取代理对象
+ * 缓存编码只支持实体类（见 CacheCodec），项目启动时检查所有注解方法的返回值类型，不支持的类型直接启动失败，
+ * 否则List、String、数字等返回值写入缓存后永远无法解码，每次都按未命中查询数据库
+ *
+ * @author dahezhiquan
+ */
+@Aspect
+@Component
+public class QingshanCacheAspect implements SmartInitializingSingleton {
+
+    private final CacheClient cacheClient;
+    private final ListableBeanFactory beanFactory;
+
+    private final ExpressionParser parser = new SpelExpressionParser();
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+    // key表达式 -> 解析后的表达式
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    public QingshanCacheAspect(CacheClient cacheClient, ListableBeanFactory beanFactory) {
+        this.cacheClient = cacheClient;
+        this.beanFactory = beanFactory;
+    }
+
+    /**
+     * 所有单例创建完成后检查 @QingshanCached 方法的返回值类型
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        for (String beanName : beanFactory.getBeanDefinitionNames()) {
+            Class<?> beanType = beanFactory.getType(beanName, false);
+            if (beanType == null) {
+                continue;
+            }
+            Map<Method, QingshanCached> methods = MethodIntrospector.selectMethods(ClassUtils.getUserClass(beanType),
+                    (MethodIntrospector.MetadataLookup<QingshanCached>) method ->
+                            AnnotatedElementUtils.findMergedAnnotation(method, QingshanCached.class));
+            for (Method method : methods.keySet()) {
+                if (!isCacheable(method.getReturnType())) {
+                    throw new IllegalStateException("@QingshanCached 不支持的返回值类型 " + method.getReturnType().getName()
+                            + "，缓存对象必须是有无参构造方法的实体类：" + method);
+                }
+            }
+        }
+    }
+
+    /**
+     * 缓存编码支持的类型：有无参构造方法的具体类，不包括基本类型、数组、集合、字符串等JDK类型
+     */
+    static boolean isCacheable(Class<?> type) {
+        if (type.isPrimitive() || type.isArray() || type.isInterface() || type.isEnum()
+                || Modifier.isAbstract(type.getModifiers()) || type.getName().startsWith("java.")) {
+            return false;
+        }
+        try {
+            type.getDeclaredConstructor();
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 按注解的策略查询缓存，未命中时执行方法查询数据库
+     */
+    @Around("@annotation(cached)")
+    @SuppressWarnings("unchecked")
+    public Object cached(ProceedingJoinPoint joinPoint, QingshanCached cached) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Object id = key(method, joinPoint.getArgs(), cached.key());
+        Class<Object> type = (Class<Object>) method.getReturnType();
+        Function<Object, Object> dbFallback = ignored -> proceed(joinPoint);
+        switch (cached.strategy()) {
+            case PASS_THROUGH:
+                return cacheClient.queryWithPassThrough(cached.prefix(), id, type, dbFallback, cached.ttl(), cached.unit());
+            case LOGICAL:
+                // 逻辑过期策略下由重建线程在本次调用返回之后执行方法，连接点不能跨线程复用，直接反射调用目标对象的方法
+                Object target = joinPoint.getTarget();
+                Method targetMethod = AopUtils.getMostSpecificMethod(method, target.getClass());
+                Object[] args = joinPoint.getArgs().clone();
+                return cacheClient.queryWithLogicalExpire(cached.prefix(), id, type,
+                        ignored -> invoke(target, targetMethod, args), cached.ttl(), cached.unit());
+            default:
+                return cacheClient.queryWithMutex(cached.prefix(), id, type, dbFallback, cached.ttl(), cached.unit());
+        }
+    }
+
+    /**
+     * 方法执行成功后删除缓存
+     */
+    @AfterReturning("@annotation(evict)")
+    public void evict(JoinPoint joinPoint, QingshanEvict evict) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Object id = key(method, joinPoint.getArgs(), evict.key());
+        if (id != null) {
+            cacheClient.delete(evict.prefix() + id);
+        }
+    }
+
+    /**
+     * 计算key表达式的值，表达式为空时使用第一个参数，方法没有参数时返回空字符串
+     */
+    private Object key(Method method, Object[] args, String key) {
+        if (key.isEmpty()) {
+            return args.length == 0 ? "" : args[0];
+        }
+        Expression expression = expressions.computeIfAbsent(key, parser::parseExpression);
+        return expression.getValue(new MethodBasedEvaluationContext(null, method, args, parameterNameDiscoverer));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) {
+        ReflectionUtils.makeAccessible(method);
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getTargetException();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object proceed(ProceedingJoinPoint joinPoint) {
+        try {
+            return joinPoint.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.qingshan.utils;
+
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 声明方法的返回值通过CacheClient缓存，缓存的key为 前缀 + key表达式的值
+ * 方法体只负责查询数据库，缓存未命中时调用；返回null时缓存空值，防止缓存穿透
+ * 返回值会被多个请求共享（本地缓存），调用方不能修改返回的对象
+ * 返回值类型必须是有无参构造方法的实体类，List、String、数字等类型在项目启动时报错
+ *
+ * @author dahezhiquan
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface QingshanCached {
+
+    /**
+     * 存入Redis中的key前缀字符串
+     */
+    String prefix();
+
+    /**
+     * key的SpEL表达式，例如 #id，为空时使用第一个参数，方法没有参数时key就是前缀
+     */
+    String key() default "";
+
+    /**
+     * 过期时间，逻辑过期策略下为逻辑过期时间
+     */
+    long ttl();
+
+    /**
+     * 过期时间单位
+     */
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    /**
+     * 缓存策略
+     */
+    Strategy strategy() default Strategy.MUTEX;
+
+    enum Strategy {
+        // 解决缓存穿透，未命中时本节点合并查询
+        PASS_THROUGH,
+        // 解决缓存穿透 + 缓存击穿，未命中时各节点通过互斥锁只查询一次数据库
+        MUTEX,
+        // 逻辑过期，过期后返回旧数据并异步重建，适合热点数据
+        LOGICAL
+    }
+}
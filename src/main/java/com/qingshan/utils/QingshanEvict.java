@@ -0,0 +1,24 @@
+package com.qingshan.utils;
+
+import java.lang.annotation.*;
+
+/**
+ * 声明方法执行成功后删除缓存，同时清除各节点的本地缓存；在事务中执行时事务提交后再删除一次
+ *
+ * @author dahezhiquan
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface QingshanEvict {
+
+    /**
+     * 存入Redis中的key前缀字符串
+     */
+    String prefix();
+
+    /**
+     * key的SpEL表达式，例如 #shop.id，为空时使用第一个参数，方法没有参数时key就是前缀；值为null时不删除
+     */
+    String key() default "";
+}
@@ -12,18 +12,39 @@ public class RedisConstants {
     // 缓存null值的过期时间
     public static final Long CACHE_NULL_TTL = 2L;
 
-    public static final Long CACHE_SHOP_TTL = 30L;
+    // 缓存注解中使用的过期时间需要是编译期常量，定义为基本类型
+    public static final long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "qingshan:cache:shop:";
 
-    public static final String CACHE_SHOP_TYPE_KEY = "qingshan:cache:shoptype";
+    public static final long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "qingshan:cache:blog:";
 
-    public static final Long CACHE_SHOP_TYPE_TTL = 120L;
+    // 用户公开信息（UserDTO）缓存，用于博客作者、共同关注等列表的批量查询
+    public static final long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "qingshan:cache:user:";
+
+    // 缓存失效广播频道，消息内容为失效的key，各节点收到后清除本地缓存
+    public static final String CACHE_INVALIDATE_CHANNEL = "qingshan:cache:invalidate";
+
+    // 商户、博客、用户id的布隆过滤器（Redis位图），用于拒绝一定不存在的id，防止缓存穿透
+    public static final String BLOOM_SHOP_KEY = "qingshan:bloom:shop";
+    public static final String BLOOM_BLOG_KEY = "qingshan:bloom:blog";
+    public static final String BLOOM_USER_KEY = "qingshan:bloom:user";
+    // 布隆过滤器变更广播频道，消息内容为“过滤器key id”（新增id）或者“过滤器key”（已重建）
+    public static final String BLOOM_CHANNEL = "qingshan:bloom:update";
+
+    // 商户类型的版本号，商户类型变更时自增，各节点发现版本变化后重新加载本地快照
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "qingshan:cache:shoptype:version";
 
     // 解决缓存击穿问题的锁前缀
     public static final String LOCK_SHOP_KEY = "qingshan:lock:shop:";
+    // 逻辑过期缓存异步重建的锁前缀，后接缓存的key
+    public static final String LOCK_CACHE_REBUILD_KEY = "qingshan:lock:rebuild:";
 
     // Redis ID 自生成策略序列号的前缀
     public static final String INCR_KEY = "qiangshan:icr:";
+    // 每天的序列号key的过期时间（天）
+    public static final Long INCR_KEY_TTL = 2L;
     public static final Long LOCK_SHOP_TTL = 10L;
 
     // 实现的分布式锁的前缀
@@ -31,6 +52,52 @@ public class RedisConstants {
 
     // 秒杀券的库存信息
     public static final String SECKILL_STOCK_KEY = "qingshan:seckill:stock:";
+    // 秒杀券的已下单用户集合
+    public static final String SECKILL_ORDER_KEY = "qingshan:seckill:order:";
+    // 秒杀券的元数据（Hash），例如库存分片数量
+    public static final String SECKILL_META_KEY = "qingshan:seckill:meta:";
+    // 秒杀券元数据在本地缓存的有效期（毫秒）
+    public static final Long SECKILL_META_LOCAL_TTL = 60000L;
+    // 秒杀券元数据变更的广播频道，各节点收到后清除本地缓存
+    public static final String SECKILL_META_CHANNEL = "qingshan:seckill:meta";
+
+    // 秒杀订单消息队列（Redis Stream）及其消费者组
+    public static final String SECKILL_STREAM_KEY = "qingshan:stream:orders";
+    public static final String SECKILL_STREAM_GROUP = "g1";
+    // 分片库存的秒杀券各分片有自己的订单消息队列，登记在这个Set中，各节点为每个分片消息队列启动一个拉取线程
+    public static final String SECKILL_STREAM_SHARDS_KEY = "qingshan:stream:orders:shards";
+    // 消费者宕机后，其未确认的消息空闲多久后可以被其他消费者认领（毫秒）
+    public static final Long SECKILL_STREAM_CLAIM_IDLE = 60000L;
+
+    // 秒杀订单处理结果（Hash），字段 status、reason、userId
+    public static final String SECKILL_ORDER_STATUS_KEY = "qingshan:seckill:status:";
+    // 秒杀订单处理结果的过期时间（分钟）
+    public static final Long SECKILL_ORDER_STATUS_TTL = 30L;
+    // 秒杀订单处理完成的广播频道，唤醒各节点上等待结果的长轮询请求
+    public static final String SECKILL_ORDER_STATUS_CHANNEL = "qingshan:seckill:status";
+
+    // 超时未支付的秒杀订单（ZSET），score为支付截止时间（毫秒时间戳）
+    public static final String SECKILL_UNPAID_KEY = "qingshan:seckill:unpaid";
+    // 认领待取消订单的租期（毫秒），认领后没有处理完的订单租期过后会被重新认领
+    public static final Long SECKILL_UNPAID_CLAIM_LEASE = 30000L;
+    // 已经归还Redis库存的取消订单id集合（Set），与库存分片在同一个slot，不过期，防止重新认领时重复归还
+    public static final String SECKILL_RESTORED_KEY = "qingshan:seckill:restored:";
+    // 分片下用户默认分片上的已抢购标记（Set），无论在哪个分片抢到都记录在默认分片，用于识别跨分片的重复下单
+    public static final String SECKILL_BUYER_KEY = "qingshan:seckill:buyer:";
+
+    // 秒杀虚拟等候室的令牌桶（Hash，tokens：剩余令牌，ts：上次补充的时间）
+    public static final String SECKILL_WAITING_BUCKET_KEY = "qingshan:seckill:waiting:bucket:";
+    // 令牌桶的过期时间（小时），最后一次领取之后开始计算
+    public static final Long SECKILL_WAITING_TTL = 24L;
+    // 节点领取到本地的令牌最多保留多久（毫秒），过期未用完的令牌作废，避免流量转移后在某个节点上突发放行
+    public static final Long SECKILL_WAITING_LOCAL_TTL = 1000L;
+
+    // 秒杀券售罄、补货的广播频道
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "qingshan:seckill:soldout";
+    public static final String SECKILL_RESTOCK_CHANNEL = "qingshan:seckill:restock";
+    // 本地售罄标记的有效期（毫秒），过期后重新到Redis确认，防止错过补货广播后一直拒绝请求
+    public static final Long SECKILL_SOLD_OUT_TTL = 30000L;
+
     public static final String BLOG_LIKED_KEY = "qingshan:blog:liked:";
 
     public static final String FOLLOW_KEY = "qingshan:follow:";
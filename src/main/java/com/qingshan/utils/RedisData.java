@@ -11,4 +11,6 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data;
+    // 重建耗时（毫秒），用于临近过期时提前重建
+    private Long rebuildCost;
 }
@@ -1,27 +1,60 @@
 package com.qingshan.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.qingshan.utils.RedisConstants.INCR_KEY;
+import static com.qingshan.utils.RedisConstants.INCR_KEY_TTL;
 
 /**
  * Redis ID 自生成策略
+ * 号段模式下，每个节点一次从Redis租用一段序列号，在本地分配，剩余不多时异步预取下一段
  */
+@Slf4j
 @Component
 public class RedisIdWorker {
 
     // 2022年1月1日的时间戳，以此为初始值
     private static final long BEGIN_TIMESTAMP = 1640995200L;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    // 异步预取号段的线程
+    private static final ExecutorService SEGMENT_LOADER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "id-segment-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private StringRedisTemplate stringRedisTemplate;
 
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    // 号段长度，小于等于1时每个id都到Redis自增，关闭号段模式
+    private final int segmentSize;
+
+    // 号段剩余数量低于该值时预取下一段
+    private final int lowWaterMark;
+
+    // 业务前缀 -> 号段缓冲
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate,
+                         @Value("${qingshan.id.segment-size:1000}") int segmentSize) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.segmentSize = segmentSize;
+        this.lowWaterMark = segmentSize / 5;
     }
 
     /**
@@ -37,11 +70,99 @@ public class RedisIdWorker {
 
         // 生成序列号
         // 获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
-        // Redis自增长实现序列号包装
-        long count = stringRedisTemplate.opsForValue().increment(INCR_KEY + keyPrefix + ":" + date);
+        String date = now.format(DATE_FORMATTER);
+        long count = segmentSize > 1 ? nextSequence(keyPrefix, date) : increment(keyPrefix, date, 1);
 
         // 采用位运算接收并返回拼接的id
         return timestamp << 32 | count;
     }
+
+    /**
+     * 从本地号段中分配序列号，号段用完时切换到预取好的下一段
+     * 号段按天租用，跨天后丢弃旧号段，保证同一天内的序列号不重复
+     */
+    private long nextSequence(String keyPrefix, String date) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, key -> new SegmentBuffer());
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment != null && segment.date.equals(date)) {
+                long sequence = segment.cursor.getAndIncrement();
+                if (sequence <= segment.max) {
+                    // 剩余不多时异步预取下一段
+                    if (segment.max - sequence < lowWaterMark && buffer.next == null
+                            && buffer.loading.compareAndSet(false, true)) {
+                        prefetch(buffer, keyPrefix, date);
+                    }
+                    return sequence;
+                }
+            }
+            // 当前号段用完或者已经跨天，切换号段
+            synchronized (buffer) {
+                if (buffer.current == segment) {
+                    Segment next = buffer.next;
+                    buffer.next = null;
+                    buffer.current = next != null && next.date.equals(date) ? next : lease(keyPrefix, date);
+                }
+            }
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, String keyPrefix, String date) {
+        SEGMENT_LOADER.execute(() -> {
+            try {
+                buffer.next = lease(keyPrefix, date);
+            } catch (Exception e) {
+                log.error("预取id号段失败：{}", keyPrefix, e);
+            } finally {
+                buffer.loading.set(false);
+            }
+        });
+    }
+
+    /**
+     * 从Redis租用一个号段 INCRBY qiangshan:icr:order:20230218 1000
+     */
+    private Segment lease(String keyPrefix, String date) {
+        long max = increment(keyPrefix, date, segmentSize);
+        return new Segment(date, max - segmentSize + 1, max);
+    }
+
+    /**
+     * Redis自增长序列号，当天第一次自增时设置过期时间，防止每天的key一直堆积
+     */
+    private long increment(String keyPrefix, String date, long delta) {
+        String key = INCR_KEY + keyPrefix + ":" + date;
+        Long count = stringRedisTemplate.opsForValue().increment(key, delta);
+        if (count == null) {
+            throw new IllegalStateException("生成id失败：" + key);
+        }
+        if (count == delta) {
+            stringRedisTemplate.expire(key, INCR_KEY_TTL, TimeUnit.DAYS);
+        }
+        return count;
+    }
+
+    /**
+     * 号段，[cursor, max]之间的序列号可以在本地分配
+     */
+    private static class Segment {
+        private final String date;
+        private final AtomicLong cursor;
+        private final long max;
+
+        Segment(String date, long min, long max) {
+            this.date = date;
+            this.cursor = new AtomicLong(min);
+            this.max = max;
+        }
+    }
+
+    /**
+     * 双号段缓冲，当前号段 + 预取的下一段
+     */
+    private static class SegmentBuffer {
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean loading = new AtomicBoolean(false);
+    }
 }
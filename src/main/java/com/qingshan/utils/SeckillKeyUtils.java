@@ -0,0 +1,89 @@
+package com.qingshan.utils;
+
+import static com.qingshan.utils.RedisConstants.SECKILL_BUYER_KEY;
+import static com.qingshan.utils.RedisConstants.SECKILL_META_KEY;
+import static com.qingshan.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.qingshan.utils.RedisConstants.SECKILL_RESTORED_KEY;
+import static com.qingshan.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.qingshan.utils.RedisConstants.SECKILL_STREAM_KEY;
+
+/**
+ * 秒杀分片库存key工具类
+ * 分片key使用 {voucherId:shard} 作为hash tag，Redis Cluster下同一分片的库存、订单集合与消息队列落在同一个slot，不同分片分散到不同slot
+ */
+public class SeckillKeyUtils {
+
+    /**
+     * 分片库存key，例如 qingshan:seckill:stock:{10:3}
+     */
+    public static String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 分片已下单用户集合key，例如 qingshan:seckill:order:{10:3}
+     */
+    public static String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 分片元数据key，保存秒杀时间段，与分片库存落在同一个slot，例如 qingshan:seckill:meta:{10:3}
+     */
+    public static String metaKey(Long voucherId, int shard) {
+        return SECKILL_META_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 分片订单消息队列key，例如 qingshan:stream:orders:{10:3}
+     */
+    public static String streamKey(Long voucherId, int shard) {
+        return SECKILL_STREAM_KEY + ":{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 分片已经归还Redis库存的取消订单集合key，例如 qingshan:seckill:restored:{10:3}
+     */
+    public static String restoredKey(Long voucherId, int shard) {
+        return SECKILL_RESTORED_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 分片已抢购用户集合key，记录默认分片为该分片、在任意分片抢到的用户，例如 qingshan:seckill:buyer:{10:3}
+     */
+    public static String buyerKey(Long voucherId, int shard) {
+        return SECKILL_BUYER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 库存key，不分片时为 qingshan:seckill:stock:10
+     */
+    public static String stockKey(Long voucherId, int shard, int shards) {
+        return shards > 1 ? stockKey(voucherId, shard) : SECKILL_STOCK_KEY + voucherId;
+    }
+
+    /**
+     * 已下单用户集合key，不分片时为 qingshan:seckill:order:10
+     */
+    public static String orderKey(Long voucherId, int shard, int shards) {
+        return shards > 1 ? orderKey(voucherId, shard) : SECKILL_ORDER_KEY + voucherId;
+    }
+
+    /**
+     * 已经归还Redis库存的取消订单集合key，不分片时为 qingshan:seckill:restored:10
+     */
+    public static String restoredKey(Long voucherId, int shard, int shards) {
+        return shards > 1 ? restoredKey(voucherId, shard) : SECKILL_RESTORED_KEY + voucherId;
+    }
+
+    /**
+     * 用户优先抢购的分片，按用户id哈希选择
+     *
+     * @param userId 用户id
+     * @param shards 分片数量
+     * @return 分片下标
+     */
+    public static int shardOf(Long userId, int shards) {
+        return Math.floorMod(userId.hashCode(), shards);
+    }
+}
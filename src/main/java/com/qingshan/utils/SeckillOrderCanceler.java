@@ -0,0 +1,148 @@
+package com.qingshan.utils;
+
+import com.qingshan.entity.VoucherOrder;
+import com.qingshan.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.qingshan.utils.RedisConstants.*;
+import static com.qingshan.utils.SystemConstants.SECKILL_CANCEL_BATCH_SIZE;
+
+/**
+ * 超时未支付订单的自动取消
+ * 下单成功后订单id按支付截止时间加入ZSET，ZSET本身就是按到期时间排序的延时队列，
+ * 定时从队头成批认领到期的订单，不需要为每个订单创建定时任务，百万级的待支付订单只占用Redis中的一个ZSET
+ * 取消时先在数据库中修改订单状态并归还库存，再归还Redis库存、把用户从已下单集合中移除，用户可以重新抢购
+ * 归还Redis库存后在数据库中标记，中途宕机的订单重新认领时仍会被找回；Redis中记录已归还的订单id，保证只归还一次
+ */
+@Slf4j
+@Component
+public class SeckillOrderCanceler {
+
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT;
+    private static final DefaultRedisScript<Long> CANCEL_SCRIPT;
+
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("seckill-claim-unpaid.lua"));
+        CLAIM_SCRIPT.setResultType(List.class);
+        CANCEL_SCRIPT = new DefaultRedisScript<>();
+        CANCEL_SCRIPT.setLocation(new ClassPathResource("seckill-cancel.lua"));
+        CANCEL_SCRIPT.setResultType(Long.class);
+    }
+
+    private final IVoucherOrderService voucherOrderService;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SeckillVoucherMetaCache seckillVoucherMetaCache;
+    private final SeckillSoldOutCache seckillSoldOutCache;
+    private final Counter cancelledCounter;
+
+    public SeckillOrderCanceler(IVoucherOrderService voucherOrderService,
+                                StringRedisTemplate stringRedisTemplate,
+                                SeckillVoucherMetaCache seckillVoucherMetaCache,
+                                SeckillSoldOutCache seckillSoldOutCache,
+                                MeterRegistry meterRegistry) {
+        this.voucherOrderService = voucherOrderService;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillVoucherMetaCache = seckillVoucherMetaCache;
+        this.seckillSoldOutCache = seckillSoldOutCache;
+        this.cancelledCounter = meterRegistry.counter("qingshan.seckill.order.cancelled");
+    }
+
+    /**
+     * 定期取消到期的订单，每次一批，直到没有到期的订单
+     * 认领是原子的，多个节点可以同时执行，各自取消不同的订单
+     */
+    @Scheduled(fixedDelayString = "${qingshan.seckill.cancel-interval:1000}")
+    public void cancelExpiredOrders() {
+        try {
+            int claimed;
+            do {
+                claimed = cancelBatch();
+            } while (claimed == SECKILL_CANCEL_BATCH_SIZE);
+        } catch (Exception e) {
+            // 已经认领但没有取消完的订单在租期过后会被重新认领
+            log.error("取消超时未支付的订单失败", e);
+        }
+    }
+
+    /**
+     * 认领并取消一批到期的订单
+     *
+     * @return 认领的订单数量
+     */
+    private int cancelBatch() {
+        List<?> claimed = stringRedisTemplate.execute(CLAIM_SCRIPT, Collections.singletonList(SECKILL_UNPAID_KEY),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(SECKILL_CANCEL_BATCH_SIZE),
+                SECKILL_UNPAID_CLAIM_LEASE.toString());
+        if (claimed == null || claimed.isEmpty()) {
+            return 0;
+        }
+        List<Long> orderIds = claimed.stream()
+                .map(orderId -> Long.valueOf(orderId.toString()))
+                .collect(Collectors.toList());
+
+        // 数据库中取消订单并归还库存，已经支付的订单不会被取消
+        List<VoucherOrder> cancelled = voucherOrderService.cancelUnpaidOrders(orderIds);
+        // Redis中归还库存，把用户从已下单集合中移除
+        Set<Long> restocked = new HashSet<>();
+        for (VoucherOrder order : cancelled) {
+            if (restoreRedisStock(order)) {
+                restocked.add(order.getVoucherId());
+            }
+        }
+        // 标记已经归还Redis库存，之后重新认领不会再返回这些订单
+        voucherOrderService.markRedisRestored(cancelled.stream().map(VoucherOrder::getId).collect(Collectors.toList()));
+        // 补回了库存，清除各节点的售罄标记
+        restocked.forEach(seckillSoldOutCache::clearSoldOut);
+
+        // 处理完成，从延时队列中删除，包括已经支付、不需要取消的订单
+        stringRedisTemplate.opsForZSet().remove(SECKILL_UNPAID_KEY, claimed.toArray());
+        return claimed.size();
+    }
+
+    /**
+     * 在用户抢到的分片上归还一个库存，分片下用户不一定抢在默认分片，逐个分片尝试，归还后移除默认分片上的已抢购标记
+     * 先检查所有分片是否已经归还过，避免在其他分片上移除用户重新抢到的名额；同一个订单同一时间只被一个节点认领
+     *
+     * @return 是否归还了库存
+     */
+    private boolean restoreRedisStock(VoucherOrder order) {
+        Long voucherId = order.getVoucherId();
+        int shards = seckillVoucherMetaCache.getShards(voucherId);
+        int home = shards > 1 ? SeckillKeyUtils.shardOf(order.getUserId(), shards) : 0;
+        if (shards > 1) {
+            for (int i = 0; i < shards; i++) {
+                if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet()
+                        .isMember(SeckillKeyUtils.restoredKey(voucherId, i), order.getId().toString()))) {
+                    return false;
+                }
+            }
+        }
+        for (int i = 0; i < shards; i++) {
+            int shard = (home + i) % shards;
+            Long result = stringRedisTemplate.execute(CANCEL_SCRIPT, Arrays.asList(
+                    SeckillKeyUtils.stockKey(voucherId, shard, shards),
+                    SeckillKeyUtils.orderKey(voucherId, shard, shards),
+                    SeckillKeyUtils.restoredKey(voucherId, shard, shards)),
+                    order.getUserId().toString(), order.getId().toString());
+            if (result != null && result == 1L) {
+                if (shards > 1) {
+                    stringRedisTemplate.opsForSet().remove(SeckillKeyUtils.buyerKey(voucherId, home), order.getUserId().toString());
+                }
+                cancelledCounter.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,337 @@
+package com.qingshan.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.qingshan.utils.RedisConstants.*;
+import static com.qingshan.utils.SystemConstants.SECKILL_JOURNAL_SWEEP_BATCH;
+
+/**
+ * 秒杀订单本地预写日志
+ * 执行秒杀脚本之前预留一条定长记录，秒杀成功后、返回订单id之前记录生效，订单落库后标记完成
+ * 订单消息在Redis Stream中，Redis宕机切换时可能丢失最近写入的消息，启动时把日志中未完成的订单重新投递到消息队列
+ * 订单插入有唯一索引，同一个订单重复投递不会重复下单
+ * 订单可能由其他节点落库，各节点收到订单处理完成的广播时按订单id标记完成；广播丢失时由定期清理按订单处理结果补标
+ * 写入内存映射文件后即使JVM崩溃，数据也由操作系统写回磁盘；操作系统崩溃时依赖定期的force
+ * 文件按槽位循环使用，写到末尾后从头开始，跳过仍未完成的槽位
+ */
+@Slf4j
+@Component
+public class SeckillOrderJournal {
+
+    // 每条记录：orderId(8) + userId(8) + voucherId(8) + 校验和(4) + 状态(4)
+    private static final int RECORD_SIZE = 32;
+    private static final int STATE_OFFSET = 28;
+    private static final int CHECKSUM_OFFSET = 24;
+
+    private static final int STATE_EMPTY = 0;
+    private static final int STATE_PENDING = 1;
+    private static final int STATE_DONE = 2;
+    private static final int STATE_RESERVED = 3;
+
+    // 找不到空闲槽位时最多向后探测的次数
+    private static final int MAX_PROBES = 16;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private final boolean enabled;
+    private final String path;
+    private final int capacity;
+
+    private RandomAccessFile file;
+    private FileLock fileLock;
+    private MappedByteBuffer buffer;
+
+    // 下一个写入的槽位
+    private final AtomicLong cursor = new AtomicLong();
+    // 未完成的订单id -> 槽位
+    private final Map<Long, Integer> pending = new ConcurrentHashMap<>();
+
+    public SeckillOrderJournal(StringRedisTemplate stringRedisTemplate,
+                               MeterRegistry meterRegistry,
+                               @Value("${qingshan.seckill.journal.enabled:true}") boolean enabled,
+                               @Value("${qingshan.seckill.journal.path:data/seckill-order.journal}") String path,
+                               @Value("${qingshan.seckill.journal.capacity:1048576}") int capacity) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.path = path;
+        this.capacity = capacity;
+    }
+
+    /**
+     * 打开日志文件，重新投递上次运行时未完成的订单
+     */
+    @PostConstruct
+    private void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        File journal = new File(path);
+        if (journal.getParentFile() != null) {
+            journal.getParentFile().mkdirs();
+        }
+        file = new RandomAccessFile(journal, "rw");
+        // 一个日志文件只能由一个进程使用
+        fileLock = file.getChannel().tryLock();
+        if (fileLock == null) {
+            file.close();
+            throw new IllegalStateException("秒杀订单日志已被其他进程占用：" + journal.getAbsolutePath());
+        }
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_SIZE);
+
+        replay();
+        Gauge.builder("qingshan.seckill.journal.pending", pending, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * 项目关闭时刷盘并释放文件
+     */
+    @PreDestroy
+    private void destroy() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        buffer.force();
+        fileLock.release();
+        file.close();
+    }
+
+    /**
+     * 执行秒杀脚本之前预留一条记录，预留的记录不会被重放
+     *
+     * @param orderId   订单id
+     * @param userId    用户id
+     * @param voucherId 秒杀券id
+     */
+    public void reserve(long orderId, long userId, long voucherId) {
+        if (buffer == null) {
+            return;
+        }
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int slot = (int) (cursor.getAndIncrement() % capacity);
+            int offset = slot * RECORD_SIZE;
+            // 槽位仍在使用中，跳过
+            int state = buffer.getInt(offset + STATE_OFFSET);
+            if (state == STATE_PENDING || state == STATE_RESERVED) {
+                continue;
+            }
+            buffer.putInt(offset + STATE_OFFSET, STATE_RESERVED);
+            buffer.putLong(offset, orderId);
+            buffer.putLong(offset + 8, userId);
+            buffer.putLong(offset + 16, voucherId);
+            buffer.putInt(offset + CHECKSUM_OFFSET, checksum(orderId, userId, voucherId));
+            pending.put(orderId, slot);
+            return;
+        }
+        // 日志写满，订单仍然在Redis Stream中，只是失去了本地日志的保护
+        meterRegistry.counter("qingshan.seckill.journal.overflow").increment();
+        log.warn("秒杀订单日志已满，订单{}未写入日志", orderId);
+    }
+
+    /**
+     * 秒杀成功，预留的记录生效，重启时会被重放
+     * 订单可能在此之前就已经落库并标记完成，此时不再生效
+     *
+     * @param orderId 订单id
+     */
+    public void commit(long orderId) {
+        if (buffer == null) {
+            return;
+        }
+        pending.computeIfPresent(orderId, (key, slot) -> {
+            buffer.putInt(slot * RECORD_SIZE + STATE_OFFSET, STATE_PENDING);
+            return slot;
+        });
+    }
+
+    /**
+     * 秒杀失败，释放预留的记录
+     *
+     * @param orderId 订单id
+     */
+    public void release(long orderId) {
+        if (buffer == null) {
+            return;
+        }
+        pending.computeIfPresent(orderId, (key, slot) -> {
+            buffer.putInt(slot * RECORD_SIZE + STATE_OFFSET, STATE_EMPTY);
+            return null;
+        });
+    }
+
+    /**
+     * 订单已经落库（或者确定下单失败），标记日志中的记录完成
+     *
+     * @param orderIds 订单id
+     */
+    public void checkpoint(Collection<Long> orderIds) {
+        if (buffer == null) {
+            return;
+        }
+        for (Long orderId : orderIds) {
+            pending.computeIfPresent(orderId, (key, slot) -> {
+                buffer.putInt(slot * RECORD_SIZE + STATE_OFFSET, STATE_DONE);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * 定期清理已经处理完的记录，订单处理完成的广播丢失时（例如订阅连接断开）记录不会一直占用槽位
+     * 只检查已经生效的记录，订单处理结果为 CREATED 或 FAILED 时标记完成
+     */
+    @Scheduled(fixedDelayString = "${qingshan.seckill.journal.sweep-interval:60000}")
+    public void sweep() {
+        if (buffer == null || pending.isEmpty()) {
+            return;
+        }
+        List<Long> orderIds = new ArrayList<>();
+        pending.forEach((orderId, slot) -> {
+            if (buffer.getInt(slot * RECORD_SIZE + STATE_OFFSET) == STATE_PENDING) {
+                orderIds.add(orderId);
+            }
+        });
+        try {
+            List<Long> completed = completed(orderIds);
+            checkpoint(completed);
+            if (!completed.isEmpty()) {
+                log.info("秒杀订单日志清理已处理完的记录{}条", completed.size());
+            }
+        } catch (Exception e) {
+            log.error("清理秒杀订单日志失败", e);
+        }
+    }
+
+    /**
+     * 按订单处理结果筛选已经处理完（CREATED 或 FAILED）的订单
+     * HGET qingshan:seckill:status:orderId status ...
+     *
+     * @param orderIds 订单id
+     * @return 已经处理完的订单id
+     */
+    private List<Long> completed(List<Long> orderIds) {
+        List<Long> completed = new ArrayList<>();
+        for (int from = 0; from < orderIds.size(); from += SECKILL_JOURNAL_SWEEP_BATCH) {
+            List<Long> batch = orderIds.subList(from, Math.min(from + SECKILL_JOURNAL_SWEEP_BATCH, orderIds.size()));
+            List<Object> statuses = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Long orderId : batch) {
+                    connection.hashCommands().hGet((SECKILL_ORDER_STATUS_KEY + orderId).getBytes(StandardCharsets.UTF_8),
+                            "status".getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+            for (int i = 0; i < batch.size(); i++) {
+                Object status = statuses.get(i);
+                if (SeckillOrderStatus.CREATED.equals(status) || SeckillOrderStatus.FAILED.equals(status)) {
+                    completed.add(batch.get(i));
+                }
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * 定期刷盘，缩小操作系统崩溃时丢失的范围
+     */
+    @Scheduled(fixedDelayString = "${qingshan.seckill.journal.force-interval:1000}")
+    public void force() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * 扫描日志，把未完成的订单重新投递到订单消息队列
+     * 订单处理结果已经是 CREATED 或 FAILED 的记录（例如由其他节点落库）直接标记完成，不再投递
+     */
+    private void replay() {
+        long ttl = TimeUnit.MINUTES.toSeconds(SECKILL_ORDER_STATUS_TTL);
+        List<Long> orderIds = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = slot * RECORD_SIZE;
+            int state = buffer.getInt(offset + STATE_OFFSET);
+            if (state == STATE_RESERVED) {
+                // 预留后没有生效就崩溃了，秒杀结果未知，以Redis为准
+                buffer.putInt(offset + STATE_OFFSET, STATE_EMPTY);
+                continue;
+            }
+            if (state != STATE_PENDING) {
+                continue;
+            }
+            long orderId = buffer.getLong(offset);
+            long userId = buffer.getLong(offset + 8);
+            long voucherId = buffer.getLong(offset + 16);
+            if (buffer.getInt(offset + CHECKSUM_OFFSET) != checksum(orderId, userId, voucherId)) {
+                buffer.putInt(offset + STATE_OFFSET, STATE_EMPTY);
+                continue;
+            }
+            orderIds.add(orderId);
+            slots.add(slot);
+        }
+
+        Set<Long> completed = new HashSet<>(completed(orderIds));
+        int replayed = 0;
+        int lastSlot = -1;
+        for (int i = 0; i < orderIds.size(); i++) {
+            long orderId = orderIds.get(i);
+            int slot = slots.get(i);
+            int offset = slot * RECORD_SIZE;
+            if (completed.contains(orderId)) {
+                buffer.putInt(offset + STATE_OFFSET, STATE_DONE);
+                continue;
+            }
+            long userId = buffer.getLong(offset + 8);
+            long voucherId = buffer.getLong(offset + 16);
+            Map<String, String> order = new HashMap<>();
+            order.put("userId", String.valueOf(userId));
+            order.put("voucherId", String.valueOf(voucherId));
+            order.put("id", String.valueOf(orderId));
+            stringRedisTemplate.opsForStream().add(StreamRecords.string(order).withStreamKey(SECKILL_STREAM_KEY));
+            // Redis丢失了订单处理结果时补回，客户端仍能查询到订单
+            String statusKey = SECKILL_ORDER_STATUS_KEY + orderId;
+            if (Boolean.TRUE.equals(stringRedisTemplate.opsForHash().putIfAbsent(statusKey, "status", SeckillOrderStatus.PENDING))) {
+                stringRedisTemplate.opsForHash().put(statusKey, "userId", String.valueOf(userId));
+                stringRedisTemplate.expire(statusKey, ttl, TimeUnit.SECONDS);
+            }
+            pending.put(orderId, slot);
+            lastSlot = slot;
+            replayed++;
+        }
+        // 从最后一条未完成记录之后继续写
+        cursor.set(lastSlot + 1);
+        if (replayed > 0 || !completed.isEmpty()) {
+            log.warn("重新投递秒杀订单日志中未完成的订单{}个，已处理完的记录{}条", replayed, completed.size());
+        }
+    }
+
+    private static int checksum(long orderId, long userId, long voucherId) {
+        int hash = Long.hashCode(orderId);
+        hash = 31 * hash + Long.hashCode(userId);
+        hash = 31 * hash + Long.hashCode(voucherId);
+        return hash ^ 0x5EC1;
+    }
+}
@@ -0,0 +1,188 @@
+package com.qingshan.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.qingshan.dto.Result;
+import com.qingshan.dto.VoucherOrderStatusDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.qingshan.utils.RedisConstants.*;
+import static com.qingshan.utils.SystemConstants.SECKILL_ORDER_STATUS_MAX_WAIT;
+
+/**
+ * 秒杀订单处理结果
+ * 秒杀脚本下单成功时写入 PENDING，异步下单完成后更新为 CREATED 或 FAILED，客户端通过长轮询查询，不再访问数据库
+ * 订单处理完成后广播订单id，唤醒各节点上等待该订单的长轮询请求，并标记各节点本地日志中的记录完成（订单可能由其他节点落库）
+ */
+@Slf4j
+@Component
+public class SeckillOrderStatus implements MessageListener {
+
+    public static final String PENDING = "PENDING";
+    public static final String CREATED = "CREATED";
+    public static final String FAILED = "FAILED";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SeckillOrderJournal seckillOrderJournal;
+
+    // 订单id -> 在本节点等待该订单结果的长轮询请求
+    private final Map<Long, Set<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    public SeckillOrderStatus(StringRedisTemplate stringRedisTemplate, SeckillOrderJournal seckillOrderJournal) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillOrderJournal = seckillOrderJournal;
+    }
+
+    /**
+     * 记录订单处理中，分片库存的秒杀脚本只访问分片所在slot的key，订单处理结果在执行脚本之前写入
+     * 先于订单消息写入，保证异步下单完成时写入的结果不会被覆盖
+     *
+     * @param orderId 订单id
+     * @param userId  用户id
+     */
+    public void pending(Long orderId, Long userId) {
+        Map<String, String> status = new HashMap<>();
+        status.put("status", PENDING);
+        status.put("userId", userId.toString());
+        long ttl = TimeUnit.MINUTES.toSeconds(SECKILL_ORDER_STATUS_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            stringConnection.hMSet(SECKILL_ORDER_STATUS_KEY + orderId, status);
+            stringConnection.expire(SECKILL_ORDER_STATUS_KEY + orderId, ttl);
+            return null;
+        });
+    }
+
+    /**
+     * 没有抢到券时删除预先写入的处理结果
+     *
+     * @param orderId 订单id
+     */
+    public void remove(Long orderId) {
+        stringRedisTemplate.delete(SECKILL_ORDER_STATUS_KEY + orderId);
+    }
+
+    /**
+     * 记录一批订单的处理结果，并广播给各节点
+     *
+     * @param created 下单成功的订单id
+     * @param failed  下单失败的订单id -> 失败原因
+     */
+    public void complete(Collection<Long> created, Map<Long, String> failed) {
+        if (created.isEmpty() && failed.isEmpty()) {
+            return;
+        }
+        long ttl = TimeUnit.MINUTES.toSeconds(SECKILL_ORDER_STATUS_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Long orderId : created) {
+                stringConnection.hSet(SECKILL_ORDER_STATUS_KEY + orderId, "status", CREATED);
+                stringConnection.expire(SECKILL_ORDER_STATUS_KEY + orderId, ttl);
+            }
+            failed.forEach((orderId, reason) -> {
+                Map<String, String> status = new HashMap<>();
+                status.put("status", FAILED);
+                status.put("reason", reason);
+                stringConnection.hMSet(SECKILL_ORDER_STATUS_KEY + orderId, status);
+                stringConnection.expire(SECKILL_ORDER_STATUS_KEY + orderId, ttl);
+            });
+            return null;
+        });
+        // 一批订单只广播一次
+        StringJoiner orderIds = new StringJoiner(",");
+        created.forEach(orderId -> orderIds.add(orderId.toString()));
+        failed.keySet().forEach(orderId -> orderIds.add(orderId.toString()));
+        stringRedisTemplate.convertAndSend(SECKILL_ORDER_STATUS_CHANNEL, orderIds.toString());
+    }
+
+    /**
+     * 查询订单处理结果，订单仍在处理中时最多等待 timeout 毫秒
+     *
+     * @param orderId 订单id
+     * @param userId  当前用户id，只能查询自己的订单
+     * @param timeout 长轮询的等待时间（毫秒），0表示不等待
+     * @return 订单处理结果
+     */
+    public DeferredResult<Result> query(Long orderId, Long userId, long timeout) {
+        long wait = Math.min(Math.max(timeout, 0), SECKILL_ORDER_STATUS_MAX_WAIT);
+        DeferredResult<Result> deferred = new DeferredResult<>(wait);
+        Map<Object, Object> status = load(orderId);
+        if (status.isEmpty() || !userId.toString().equals(status.get("userId"))) {
+            deferred.setResult(Result.fail("订单不存在或已过期！"));
+            return deferred;
+        }
+        if (wait == 0 || !PENDING.equals(status.get("status"))) {
+            deferred.setResult(toResult(orderId, status));
+            return deferred;
+        }
+
+        // 订单仍在处理中，挂起请求等待处理完成的广播
+        waiters.compute(orderId, (key, set) -> {
+            Set<DeferredResult<Result>> results = set == null ? ConcurrentHashMap.newKeySet() : set;
+            results.add(deferred);
+            return results;
+        });
+        deferred.onCompletion(() -> waiters.computeIfPresent(orderId, (key, set) -> {
+            set.remove(deferred);
+            return set.isEmpty() ? null : set;
+        }));
+        deferred.onTimeout(() -> deferred.setResult(toResult(orderId, load(orderId))));
+        // 挂起之后再查一次，防止挂起之前订单已经处理完，错过广播
+        status = load(orderId);
+        if (!PENDING.equals(status.get("status"))) {
+            deferred.setResult(toResult(orderId, status));
+        }
+        return deferred;
+    }
+
+    /**
+     * 接收订单处理完成的广播，标记本地日志中的记录完成，唤醒本节点上等待的长轮询请求
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        List<Long> orderIds = new ArrayList<>();
+        for (String id : StrUtil.split(body, ',')) {
+            orderIds.add(Long.valueOf(id));
+        }
+        // 在本节点秒杀、由其他节点落库的订单，只能在这里标记完成
+        seckillOrderJournal.checkpoint(orderIds);
+        for (Long orderId : orderIds) {
+            Set<DeferredResult<Result>> results = waiters.get(orderId);
+            if (results == null) {
+                continue;
+            }
+            Map<Object, Object> status = load(orderId);
+            if (PENDING.equals(status.get("status"))) {
+                continue;
+            }
+            Result result = toResult(orderId, status);
+            for (DeferredResult<Result> deferred : results) {
+                deferred.setResult(result);
+            }
+        }
+    }
+
+    private Map<Object, Object> load(Long orderId) {
+        return stringRedisTemplate.opsForHash().entries(SECKILL_ORDER_STATUS_KEY + orderId);
+    }
+
+    private Result toResult(Long orderId, Map<Object, Object> status) {
+        if (status.isEmpty()) {
+            return Result.fail("订单不存在或已过期！");
+        }
+        return Result.ok(new VoucherOrderStatusDTO(orderId,
+                (String) status.get("status"), (String) status.get("reason")));
+    }
+}
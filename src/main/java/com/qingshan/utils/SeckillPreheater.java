@@ -0,0 +1,332 @@
+package com.qingshan.utils;
+
+import com.qingshan.entity.SeckillVoucher;
+import com.qingshan.entity.VoucherOrder;
+import com.qingshan.service.ISeckillVoucherService;
+import com.qingshan.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.qingshan.utils.RedisConstants.LOCK_KEY;
+import static com.qingshan.utils.RedisConstants.SECKILL_META_KEY;
+import static com.qingshan.utils.RedisConstants.SECKILL_STREAM_KEY;
+import static com.qingshan.utils.RedisConstants.SECKILL_STREAM_SHARDS_KEY;
+import static com.qingshan.utils.SystemConstants.SECKILL_RECONCILE_PAGE_SIZE;
+
+/**
+ * 秒杀券预热
+ * 项目启动时以及按需把所有未结束的秒杀券写入Redis：元数据每次都刷新，库存key缺失（Redis被清空或者主从切换丢数据）时
+ * 只重建缺失的库存key，库存按数据库计算，并扣除消息队列中尚未落库的订单，否则秒杀脚本读不到库存，请求都会返回尚未预热
+ * 同一时间只有一个节点执行，完好的库存key与已下单用户不做删除，与正在进行的秒杀互不影响
+ */
+@Slf4j
+@Component
+public class SeckillPreheater {
+
+    private final ISeckillVoucherService seckillVoucherService;
+    private final IVoucherOrderService voucherOrderService;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedissonClient redissonClient;
+    private final SeckillSoldOutCache seckillSoldOutCache;
+
+    public SeckillPreheater(ISeckillVoucherService seckillVoucherService,
+                            IVoucherOrderService voucherOrderService,
+                            StringRedisTemplate stringRedisTemplate,
+                            RedissonClient redissonClient,
+                            SeckillSoldOutCache seckillSoldOutCache) {
+        this.seckillVoucherService = seckillVoucherService;
+        this.voucherOrderService = voucherOrderService;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+        this.seckillSoldOutCache = seckillSoldOutCache;
+    }
+
+    /**
+     * 项目启动完成后预热，保证Redis重启或者数据丢失后秒杀仍然可用
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void preheatOnStartup() {
+        try {
+            preheat();
+        } catch (Exception e) {
+            log.error("预热秒杀券失败", e);
+        }
+    }
+
+    /**
+     * 按 voucher_id 分页遍历所有未结束的秒杀券并预热
+     *
+     * @return 重建了库存的秒杀券数量，其他节点正在预热时返回-1
+     */
+    public int preheat() {
+        RLock lock = redissonClient.getLock(LOCK_KEY + "seckill:preheat");
+        if (!lock.tryLock()) {
+            return -1;
+        }
+        try {
+            int total = 0;
+            int rebuilt = 0;
+            long lastVoucherId = -1;
+            LocalDateTime now = LocalDateTime.now();
+            while (true) {
+                List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                        .gt("voucher_id", lastVoucherId)
+                        .gt("end_time", now)
+                        .orderByAsc("voucher_id")
+                        .last("LIMIT " + SECKILL_RECONCILE_PAGE_SIZE)
+                        .list();
+                if (vouchers.isEmpty()) {
+                    break;
+                }
+                lastVoucherId = vouchers.get(vouchers.size() - 1).getVoucherId();
+                for (SeckillVoucher voucher : vouchers) {
+                    try {
+                        if (preheat(voucher)) {
+                            rebuilt++;
+                        }
+                    } catch (Exception e) {
+                        log.error("预热秒杀券失败：{}", voucher.getVoucherId(), e);
+                    }
+                }
+                total += vouchers.size();
+                if (vouchers.size() < SECKILL_RECONCILE_PAGE_SIZE) {
+                    break;
+                }
+            }
+            log.info("预热秒杀券完成，共{}张，重建库存{}张", total, rebuilt);
+            return rebuilt;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 预热一张秒杀券，元数据中保留的分片数量不变，元数据丢失时使用数据库中保存的分片数量
+     *
+     * @return 是否重建了库存
+     */
+    private boolean preheat(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        int shards = shardsOf(voucher);
+        if (shards < 1) {
+            return false;
+        }
+
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(SeckillKeyUtils.stockKey(voucherId, i, shards)))) {
+                missing.add(i);
+            }
+        }
+        boolean rebuild = !missing.isEmpty();
+        if (rebuild) {
+            rebuildStock(voucherId, shards, missing);
+        }
+        seckillVoucherService.saveSeckillMeta(voucher, shards);
+        // 登记各分片的订单消息队列，各节点为其启动拉取线程
+        if (shards > 1) {
+            for (int i = 0; i < shards; i++) {
+                stringRedisTemplate.opsForSet().add(SECKILL_STREAM_SHARDS_KEY, SeckillKeyUtils.streamKey(voucherId, i));
+            }
+        }
+        if (rebuild) {
+            seckillSoldOutCache.clearSoldOut(voucherId);
+        }
+        return rebuild;
+    }
+
+    /**
+     * 确定秒杀券的分片数量：优先使用Redis元数据，元数据丢失时使用数据库中保存的分片数量
+     * 分片数量为1、Redis中却还有分片key时（分片数量保存到数据库之前创建的秒杀券），按登记的分片消息队列推算，
+     * 无法推算时不预热，不能把分片秒杀券当作不分片重建
+     *
+     * @return 分片数量，无法确定时返回0
+     */
+    private int shardsOf(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        Object shardsValue = stringRedisTemplate.opsForHash().get(SECKILL_META_KEY + voucherId, "shards");
+        if (shardsValue != null) {
+            return Integer.parseInt(shardsValue.toString());
+        }
+        int shards = voucher.getShards() == null ? 1 : Math.max(voucher.getShards(), 1);
+        if (shards > 1) {
+            return shards;
+        }
+        String shardPrefix = SeckillKeyUtils.streamKey(voucherId, 0);
+        shardPrefix = shardPrefix.substring(0, shardPrefix.length() - 2);
+        Set<String> streams = stringRedisTemplate.opsForSet().members(SECKILL_STREAM_SHARDS_KEY);
+        int registered = 0;
+        if (streams != null) {
+            for (String stream : streams) {
+                if (stream.startsWith(shardPrefix)) {
+                    registered++;
+                }
+            }
+        }
+        if (registered > 1) {
+            log.warn("秒杀券{}的元数据丢失，按登记的分片消息队列推算分片数量为{}", voucherId, registered);
+            seckillVoucherService.update().set("shards", registered).eq("voucher_id", voucherId).update();
+            return registered;
+        }
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(SeckillKeyUtils.stockKey(voucherId, 0)))) {
+            log.error("秒杀券{}的元数据丢失，Redis中有分片库存但无法确定分片数量，跳过预热", voucherId);
+            return 0;
+        }
+        return 1;
+    }
+
+    /**
+     * 重建缺失的库存key
+     * 缺失分片的库存 = 数据库库存 - 消息队列中尚未落库的订单 - 完好分片的剩余库存，依次读取完好分片、消息队列、数据库，
+     * 期间新抢到或者落库的订单只会让结果偏小，不会超卖；偏差由对账修复
+     * 已下单用户（数据库中未取消的订单以及消息队列中的订单）只补回到缺失的分片，不删除任何已有的下单记录，最后再写库存，
+     * 库存写入之前秒杀脚本在缺失的分片上不会放行任何请求，不会出现有库存却查不到下单记录的重复下单
+     */
+    private void rebuildStock(Long voucherId, int shards, List<Integer> missing) {
+        long remaining = 0;
+        for (int i = 0; i < shards; i++) {
+            if (!missing.contains(i)) {
+                String stock = stringRedisTemplate.opsForValue().get(SeckillKeyUtils.stockKey(voucherId, i, shards));
+                remaining += stock == null ? 0 : Math.max(Long.parseLong(stock), 0);
+            }
+        }
+        List<Long> queuedUsers = queuedUsers(voucherId, shards);
+        addOrderUsers(voucherId, shards, missing, queuedUsers);
+
+        long orders = queuedUsers.size();
+        long lastUserId = -1;
+        while (true) {
+            List<Long> userIds = voucherOrderService.query()
+                    .select("active_user_id AS user_id")
+                    .eq("voucher_id", voucherId)
+                    .gt("active_user_id", lastUserId)
+                    .orderByAsc("active_user_id")
+                    .last("LIMIT " + SECKILL_RECONCILE_PAGE_SIZE)
+                    .list().stream()
+                    .map(VoucherOrder::getUserId)
+                    .collect(Collectors.toList());
+            if (userIds.isEmpty()) {
+                break;
+            }
+            lastUserId = userIds.get(userIds.size() - 1);
+            addOrderUsers(voucherId, shards, missing, userIds);
+            orders += userIds.size();
+            if (userIds.size() < SECKILL_RECONCILE_PAGE_SIZE) {
+                break;
+            }
+        }
+
+        // 数据库库存最后读取，期间落库的订单已经扣减了数据库库存，同时也可能仍在消息队列中，只会少算
+        long stock = Math.max(seckillVoucherService.getById(voucherId).getStock() - queuedUsers.size() - remaining, 0);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (int i = 0; i < missing.size(); i++) {
+                long shardStock = stock / missing.size() + (i < stock % missing.size() ? 1 : 0);
+                stringConnection.set(SeckillKeyUtils.stockKey(voucherId, missing.get(i), shards), String.valueOf(shardStock));
+            }
+            return null;
+        });
+        log.warn("秒杀券{}的库存key缺失，已重建分片{}：库存{}，消息队列中的订单{}，已下单用户{}",
+                voucherId, missing, stock, queuedUsers.size(), orders);
+    }
+
+    /**
+     * 把缺失的下单记录写回缺失的分片
+     * 在完好分片的已下单集合中的用户不再写入，避免同一个用户在两个分片各算一单；其余用户写回默认分片，默认分片完好时写回第一个缺失的分片
+     * 分片下默认分片缺失的用户同时补回默认分片上的已抢购标记
+     */
+    private void addOrderUsers(Long voucherId, int shards, List<Integer> missing, List<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        List<Integer> intact = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            if (!missing.contains(i)) {
+                intact.add(i);
+            }
+        }
+        List<Object> members = intact.isEmpty() ? Collections.emptyList()
+                : stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Long userId : userIds) {
+                for (int shard : intact) {
+                    stringConnection.sIsMember(SeckillKeyUtils.orderKey(voucherId, shard, shards), userId.toString());
+                }
+            }
+            return null;
+        });
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (int u = 0; u < userIds.size(); u++) {
+                Long userId = userIds.get(u);
+                int home = shards > 1 ? SeckillKeyUtils.shardOf(userId, shards) : 0;
+                if (shards > 1 && missing.contains(home)) {
+                    stringConnection.sAdd(SeckillKeyUtils.buyerKey(voucherId, home), userId.toString());
+                }
+                boolean exists = false;
+                for (int i = 0; i < intact.size(); i++) {
+                    exists |= Boolean.TRUE.equals(members.get(u * intact.size() + i));
+                }
+                if (!exists) {
+                    int shard = missing.contains(home) ? home : missing.get(0);
+                    stringConnection.sAdd(SeckillKeyUtils.orderKey(voucherId, shard, shards), userId.toString());
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 查询消息队列中该秒杀券尚未确认的订单的用户，包括主消息队列以及各分片的消息队列
+     * 订单确认后即从消息队列中删除，消息队列中只有尚未处理完的订单
+     *
+     * @return 用户id
+     */
+    private List<Long> queuedUsers(Long voucherId, int shards) {
+        List<Long> userIds = new ArrayList<>();
+        String voucher = voucherId.toString();
+        List<String> streamKeys = new ArrayList<>();
+        streamKeys.add(SECKILL_STREAM_KEY);
+        for (int i = 0; i < shards && shards > 1; i++) {
+            streamKeys.add(SeckillKeyUtils.streamKey(voucherId, i));
+        }
+        for (String streamKey : streamKeys) {
+            Range<String> range = Range.unbounded();
+            while (true) {
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                        .range(streamKey, range, RedisZSetCommands.Limit.limit().count(SECKILL_RECONCILE_PAGE_SIZE));
+                if (records == null || records.isEmpty()) {
+                    break;
+                }
+                for (MapRecord<String, Object, Object> record : records) {
+                    if (voucher.equals(record.getValue().get("voucherId"))) {
+                        userIds.add(Long.valueOf(record.getValue().get("userId").toString()));
+                    }
+                }
+                if (records.size() < SECKILL_RECONCILE_PAGE_SIZE) {
+                    break;
+                }
+                String lastId = records.get(records.size() - 1).getId().getValue();
+                range = Range.of(Range.Bound.exclusive(lastId), Range.Bound.unbounded());
+            }
+        }
+        return userIds;
+    }
+}
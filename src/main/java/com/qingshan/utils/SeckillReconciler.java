@@ -0,0 +1,374 @@
+package com.qingshan.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.qingshan.entity.SeckillVoucher;
+import com.qingshan.entity.VoucherOrder;
+import com.qingshan.service.ISeckillVoucherService;
+import com.qingshan.service.IVoucherOrderService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.qingshan.utils.RedisConstants.*;
+import static com.qingshan.utils.SystemConstants.SECKILL_RECONCILE_PAGE_SIZE;
+
+/**
+ * 秒杀库存、订单对账
+ * 定期比对Redis中的库存分片、已下单用户集合与数据库中的库存、订单，分页修复两边的差异
+ * 秒杀脚本同时扣库存和记录下单用户，下单同时扣库存和保存订单，取消订单同时归还库存，所以两边的 库存 + 订单数 都是不变量，
+ * 不受正在处理中的订单影响，可以在秒杀进行中对账
+ */
+@Slf4j
+@Component
+public class SeckillReconciler {
+
+    private static final DefaultRedisScript<List> SNAPSHOT_SCRIPT;
+    private static final DefaultRedisScript<Long> RESTORE_ORDER_SCRIPT;
+    private static final DefaultRedisScript<Long> ADJUST_STOCK_SCRIPT;
+
+    static {
+        SNAPSHOT_SCRIPT = new DefaultRedisScript<>();
+        SNAPSHOT_SCRIPT.setLocation(new ClassPathResource("seckill-snapshot.lua"));
+        SNAPSHOT_SCRIPT.setResultType(List.class);
+        RESTORE_ORDER_SCRIPT = new DefaultRedisScript<>();
+        RESTORE_ORDER_SCRIPT.setLocation(new ClassPathResource("seckill-restore-order.lua"));
+        RESTORE_ORDER_SCRIPT.setResultType(Long.class);
+        ADJUST_STOCK_SCRIPT = new DefaultRedisScript<>();
+        ADJUST_STOCK_SCRIPT.setLocation(new ClassPathResource("seckill-adjust-stock.lua"));
+        ADJUST_STOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    private final ISeckillVoucherService seckillVoucherService;
+    private final IVoucherOrderService voucherOrderService;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedissonClient redissonClient;
+    private final RedisIdWorker redisIdWorker;
+    private final SeckillVoucherMetaCache seckillVoucherMetaCache;
+    private final SeckillSoldOutCache seckillSoldOutCache;
+    private final MeterRegistry meterRegistry;
+
+    // 上一轮对账发现的Redis中有、数据库中没有的下单用户，连续两轮都缺失才重新投递，排除正在处理中的订单
+    private final Map<Long, Set<Long>> missingOrders = new ConcurrentHashMap<>();
+    // 上一轮对账发现的库存差值，连续两轮差值相同才修复
+    private final Map<Long, Long> stockDrifts = new ConcurrentHashMap<>();
+    // 秒杀券id -> 对账指标
+    private final Map<Long, DriftMeters> driftMeters = new ConcurrentHashMap<>();
+
+    public SeckillReconciler(ISeckillVoucherService seckillVoucherService,
+                             IVoucherOrderService voucherOrderService,
+                             StringRedisTemplate stringRedisTemplate,
+                             RedissonClient redissonClient,
+                             RedisIdWorker redisIdWorker,
+                             SeckillVoucherMetaCache seckillVoucherMetaCache,
+                             SeckillSoldOutCache seckillSoldOutCache,
+                             MeterRegistry meterRegistry) {
+        this.seckillVoucherService = seckillVoucherService;
+        this.voucherOrderService = voucherOrderService;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+        this.redisIdWorker = redisIdWorker;
+        this.seckillVoucherMetaCache = seckillVoucherMetaCache;
+        this.seckillSoldOutCache = seckillSoldOutCache;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 定期对账，同一时间只有一个节点执行
+     */
+    @Scheduled(initialDelayString = "${qingshan.seckill.reconcile-interval:60000}",
+            fixedDelayString = "${qingshan.seckill.reconcile-interval:60000}")
+    public void reconcile() {
+        RLock lock = redissonClient.getLock(LOCK_KEY + "seckill:reconcile");
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            // 秒杀结束一天内的秒杀券仍然参与对账，处理秒杀结束时还没有落库的订单
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .gt("end_time", LocalDateTime.now().minusDays(1))
+                    .list();
+            Set<Long> active = new HashSet<>();
+            for (SeckillVoucher voucher : vouchers) {
+                active.add(voucher.getVoucherId());
+                try {
+                    reconcile(voucher.getVoucherId());
+                } catch (Exception e) {
+                    log.error("秒杀券对账失败：{}", voucher.getVoucherId(), e);
+                }
+            }
+            // 清理已经结束的秒杀券的对账状态和指标
+            missingOrders.keySet().retainAll(active);
+            stockDrifts.keySet().retainAll(active);
+            driftMeters.entrySet().removeIf(entry -> {
+                if (active.contains(entry.getKey())) {
+                    return false;
+                }
+                entry.getValue().meters.forEach(meterRegistry::remove);
+                return true;
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 对账一张秒杀券
+     *
+     * @param voucherId 秒杀券id
+     */
+    public void reconcile(Long voucherId) {
+        int shards = seckillVoucherMetaCache.getShards(voucherId);
+
+        // Redis中的库存与已下单人数
+        long redisStock = 0;
+        long redisOrders = 0;
+        for (int i = 0; i < shards; i++) {
+            List<?> snapshot = stringRedisTemplate.execute(SNAPSHOT_SCRIPT, Arrays.asList(
+                    SeckillKeyUtils.stockKey(voucherId, i, shards), SeckillKeyUtils.orderKey(voucherId, i, shards)));
+            redisStock += ((Number) snapshot.get(0)).longValue();
+            redisOrders += ((Number) snapshot.get(1)).longValue();
+        }
+        // 数据库中的库存与未取消的订单数，在同一条SQL中读取保证一致，订单数走 (voucher_id, active_user_id) 索引
+        Map<String, Object> snapshot = seckillVoucherService.getMap(new QueryWrapper<SeckillVoucher>()
+                .select("stock", "(SELECT COUNT(*) FROM tb_voucher_order o WHERE o.voucher_id = " + voucherId
+                        + " AND o.active_user_id IS NOT NULL) AS orders")
+                .eq("voucher_id", voucherId));
+        if (snapshot == null) {
+            return;
+        }
+        Map<String, Object> columns = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        columns.putAll(snapshot);
+        long dbStock = ((Number) columns.get("stock")).longValue();
+        long dbOrders = ((Number) columns.get("orders")).longValue();
+
+        // Redis中有、数据库中没有的订单，重新投递到订单消息队列
+        if (redisOrders > dbOrders) {
+            long released = requeueMissingOrders(voucherId, shards, dbStock);
+            redisOrders -= released;
+        } else {
+            missingOrders.remove(voucherId);
+        }
+        // 数据库中有、Redis中没有的订单（Redis丢数据），补回已下单用户集合并扣减库存，防止超卖
+        if (dbOrders > redisOrders) {
+            long restored = restoreRedisOrders(voucherId, shards);
+            redisOrders += restored;
+            redisStock -= restored;
+        }
+        // 两边的 库存 + 订单数 不一致，以数据库为准修复Redis库存
+        long stockDrift = (dbStock + dbOrders) - (redisStock + redisOrders);
+        if (stockDrift != 0 && Objects.equals(stockDrifts.put(voucherId, stockDrift), stockDrift)) {
+            adjustRedisStock(voucherId, shards, stockDrift);
+            stockDrifts.remove(voucherId);
+        } else if (stockDrift == 0) {
+            stockDrifts.remove(voucherId);
+        }
+
+        DriftMeters meters = driftMeters.computeIfAbsent(voucherId, this::registerDriftMeters);
+        meters.orderDrift.set(redisOrders - dbOrders);
+        meters.stockDrift.set(stockDrift);
+    }
+
+    /**
+     * SSCAN分页遍历已下单用户集合，每页到数据库中查出缺失的订单
+     * 连续两轮都缺失的订单重新投递，订单插入有唯一索引，重复投递不会重复下单
+     * 数据库中已经没有库存时，重新投递也会因为库存不足被丢弃，改为从已下单用户集合中移除
+     *
+     * @return 从已下单用户集合中移除的用户数量
+     */
+    private long requeueMissingOrders(Long voucherId, int shards, long dbStock) {
+        Set<Long> lastMissing = missingOrders.getOrDefault(voucherId, Collections.emptySet());
+        Set<Long> missing = new HashSet<>();
+        for (int i = 0; i < shards; i++) {
+            String key = SeckillKeyUtils.orderKey(voucherId, i, shards);
+            try (Cursor<String> cursor = stringRedisTemplate.opsForSet()
+                    .scan(key, ScanOptions.scanOptions().count(SECKILL_RECONCILE_PAGE_SIZE).build())) {
+                List<Long> page = new ArrayList<>(SECKILL_RECONCILE_PAGE_SIZE);
+                while (cursor.hasNext()) {
+                    page.add(Long.valueOf(cursor.next()));
+                    if (page.size() == SECKILL_RECONCILE_PAGE_SIZE || !cursor.hasNext()) {
+                        missing.addAll(findMissingOrders(voucherId, page));
+                        page.clear();
+                    }
+                }
+            } catch (Exception e) {
+                log.error("遍历已下单用户失败：{}", key, e);
+                return 0;
+            }
+        }
+
+        int requeued = 0;
+        long released = 0;
+        for (Long userId : missing) {
+            if (!lastMissing.contains(userId)) {
+                continue;
+            }
+            if (dbStock <= 0) {
+                for (int i = 0; i < shards; i++) {
+                    Long removed = stringRedisTemplate.opsForSet()
+                            .remove(SeckillKeyUtils.orderKey(voucherId, i, shards), userId.toString());
+                    released += removed == null ? 0 : removed;
+                }
+                if (shards > 1) {
+                    stringRedisTemplate.opsForSet()
+                            .remove(SeckillKeyUtils.buyerKey(voucherId, SeckillKeyUtils.shardOf(userId, shards)), userId.toString());
+                }
+                continue;
+            }
+            Map<String, String> order = new HashMap<>();
+            order.put("userId", userId.toString());
+            order.put("voucherId", voucherId.toString());
+            order.put("id", String.valueOf(redisIdWorker.nextId("order")));
+            stringRedisTemplate.opsForStream().add(StreamRecords.string(order).withStreamKey(SECKILL_STREAM_KEY));
+            requeued++;
+        }
+        // 已经重新投递的订单下一轮不再重复投递
+        missing.removeAll(lastMissing);
+        missingOrders.put(voucherId, missing);
+        if (requeued > 0) {
+            meterRegistry.counter("qingshan.seckill.reconcile.repair", "type", "requeue").increment(requeued);
+            log.warn("秒杀券{}重新投递{}个缺失的订单", voucherId, requeued);
+        }
+        if (released > 0) {
+            meterRegistry.counter("qingshan.seckill.reconcile.repair", "type", "release_order").increment(released);
+            log.warn("秒杀券{}数据库库存不足，移除{}个没有落库的下单用户", voucherId, released);
+        }
+        return released;
+    }
+
+    private Collection<Long> findMissingOrders(Long voucherId, List<Long> userIds) {
+        Set<Long> missing = new HashSet<>(userIds);
+        voucherOrderService.query()
+                .select("user_id")
+                .eq("voucher_id", voucherId)
+                .in("active_user_id", userIds)
+                .list()
+                .forEach(order -> missing.remove(order.getUserId()));
+        return missing;
+    }
+
+    /**
+     * 按 active_user_id 分页遍历数据库中未取消的订单，每页用管道查询Redis中是否有下单记录，缺失的补回到用户的默认分片
+     * 分片下同时补回默认分片上的已抢购标记
+     *
+     * @return 补回的下单记录数量
+     */
+    private long restoreRedisOrders(Long voucherId, int shards) {
+        long restored = 0;
+        long lastUserId = -1;
+        while (true) {
+            List<Long> userIds = voucherOrderService.query()
+                    .select("user_id")
+                    .eq("voucher_id", voucherId)
+                    .gt("active_user_id", lastUserId)
+                    .orderByAsc("active_user_id")
+                    .last("LIMIT " + SECKILL_RECONCILE_PAGE_SIZE)
+                    .list().stream()
+                    .map(VoucherOrder::getUserId)
+                    .collect(Collectors.toList());
+            if (userIds.isEmpty()) {
+                break;
+            }
+            lastUserId = userIds.get(userIds.size() - 1);
+
+            // 分片下用户可能在任意一个分片中抢到，逐个分片查询
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (Long userId : userIds) {
+                    for (int i = 0; i < shards; i++) {
+                        stringConnection.sIsMember(SeckillKeyUtils.orderKey(voucherId, i, shards), userId.toString());
+                    }
+                }
+                return null;
+            });
+            for (int u = 0; u < userIds.size(); u++) {
+                boolean exists = false;
+                for (int i = 0; i < shards; i++) {
+                    exists |= Boolean.TRUE.equals(results.get(u * shards + i));
+                }
+                if (exists) {
+                    continue;
+                }
+                Long userId = userIds.get(u);
+                int shard = shards > 1 ? SeckillKeyUtils.shardOf(userId, shards) : 0;
+                if (shards > 1) {
+                    stringRedisTemplate.opsForSet().add(SeckillKeyUtils.buyerKey(voucherId, shard), userId.toString());
+                }
+                Long result = stringRedisTemplate.execute(RESTORE_ORDER_SCRIPT, Arrays.asList(
+                        SeckillKeyUtils.stockKey(voucherId, shard, shards),
+                        SeckillKeyUtils.orderKey(voucherId, shard, shards)), userId.toString());
+                if (result != null && result == 1L) {
+                    restored++;
+                }
+            }
+            if (userIds.size() < SECKILL_RECONCILE_PAGE_SIZE) {
+                break;
+            }
+        }
+        if (restored > 0) {
+            meterRegistry.counter("qingshan.seckill.reconcile.repair", "type", "restore_order").increment(restored);
+            log.warn("秒杀券{}补回{}个Redis中缺失的下单记录", voucherId, restored);
+        }
+        return restored;
+    }
+
+    /**
+     * 调整Redis库存，增加时平均分到各个分片，减少时依次从各个分片扣减，最多扣到0
+     */
+    private void adjustRedisStock(Long voucherId, int shards, long delta) {
+        long remaining = delta;
+        for (int i = 0; i < shards && remaining != 0; i++) {
+            long shardDelta = delta > 0 ? delta / shards + (i < delta % shards ? 1 : 0) : remaining;
+            Long adjusted = stringRedisTemplate.execute(ADJUST_STOCK_SCRIPT,
+                    Collections.singletonList(SeckillKeyUtils.stockKey(voucherId, i, shards)), String.valueOf(shardDelta));
+            remaining -= adjusted == null ? 0 : adjusted;
+        }
+        long adjusted = delta - remaining;
+        if (adjusted > 0) {
+            // 补回了库存，清除各节点的售罄标记
+            seckillSoldOutCache.clearSoldOut(voucherId);
+        }
+        meterRegistry.counter("qingshan.seckill.reconcile.repair", "type", "adjust_stock").increment(Math.abs(adjusted));
+        log.warn("秒杀券{}的Redis库存与数据库不一致，差值{}，已调整{}", voucherId, delta, adjusted);
+    }
+
+    private DriftMeters registerDriftMeters(Long voucherId) {
+        DriftMeters meters = new DriftMeters();
+        meters.meters.add(Gauge.builder("qingshan.seckill.reconcile.order.drift", meters.orderDrift, AtomicLong::get)
+                .description("Redis中的下单人数 - 数据库中的订单数，包括正在处理中的订单")
+                .tag("voucherId", voucherId.toString())
+                .register(meterRegistry));
+        meters.meters.add(Gauge.builder("qingshan.seckill.reconcile.stock.drift", meters.stockDrift, AtomicLong::get)
+                .description("数据库 库存 + 订单数 - Redis 库存 + 下单人数")
+                .tag("voucherId", voucherId.toString())
+                .register(meterRegistry));
+        return meters;
+    }
+
+    /**
+     * 一张秒杀券的对账指标
+     */
+    private static class DriftMeters {
+        private final AtomicLong orderDrift = new AtomicLong();
+        private final AtomicLong stockDrift = new AtomicLong();
+        private final List<Meter> meters = new ArrayList<>(2);
+    }
+}
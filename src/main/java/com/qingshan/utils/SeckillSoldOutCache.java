@@ -0,0 +1,86 @@
+package com.qingshan.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.qingshan.utils.RedisConstants.*;
+
+/**
+ * 秒杀券本地售罄标记
+ * 售罄的秒杀券直接在本地拒绝，不再执行Lua脚本，各节点之间通过Redis发布订阅同步售罄、补货状态
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutCache implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    // 售罄的秒杀券id -> 标记售罄的时间
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    public SeckillSoldOutCache(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 判断秒杀券在本地是否已经标记为售罄
+     *
+     * @param voucherId 秒杀券id
+     * @return 是否售罄
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long markTime = soldOut.get(voucherId);
+        if (markTime == null) {
+            return false;
+        }
+        // 标记过期，交给Redis重新判断
+        if (System.currentTimeMillis() - markTime > SECKILL_SOLD_OUT_TTL) {
+            soldOut.remove(voucherId, markTime);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记秒杀券售罄，本节点首次标记时广播给其他节点
+     *
+     * @param voucherId 秒杀券id
+     */
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.put(voucherId, System.currentTimeMillis()) == null) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+        }
+    }
+
+    /**
+     * 秒杀券补货后清除售罄标记，并广播给其他节点
+     *
+     * @param voucherId 秒杀券id
+     */
+    public void clearSoldOut(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_RESTOCK_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 接收其他节点广播的售罄、补货消息
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        Long voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (SECKILL_SOLD_OUT_CHANNEL.equals(channel)) {
+            soldOut.put(voucherId, System.currentTimeMillis());
+        } else {
+            soldOut.remove(voucherId);
+        }
+        log.debug("秒杀券售罄状态变更：{} {}", channel, voucherId);
+    }
+}
@@ -0,0 +1,123 @@
+package com.qingshan.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.qingshan.utils.RedisConstants.SECKILL_META_CHANNEL;
+import static com.qingshan.utils.RedisConstants.SECKILL_META_KEY;
+import static com.qingshan.utils.RedisConstants.SECKILL_META_LOCAL_TTL;
+
+/**
+ * 秒杀券元数据的本地缓存，避免每次秒杀请求都到Redis查询
+ * 包括库存分片数量以及秒杀时间段，不在时间段内的请求可以直接在本地拒绝，元数据变更时通过Redis发布订阅通知各节点
+ */
+@Slf4j
+@Component
+public class SeckillVoucherMetaCache implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final Map<Long, Meta> metas = new ConcurrentHashMap<>();
+
+    public SeckillVoucherMetaCache(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 获取秒杀券的库存分片数量
+     *
+     * @param voucherId 秒杀券id
+     * @return 分片数量，未开启分片时为1
+     */
+    public int getShards(Long voucherId) {
+        return getMeta(voucherId).shards;
+    }
+
+    /**
+     * 秒杀是否尚未开始
+     *
+     * @param voucherId 秒杀券id
+     * @return 元数据中有开始时间且当前时间早于开始时间时返回true
+     */
+    public boolean isNotStarted(Long voucherId) {
+        Meta meta = getMeta(voucherId);
+        return meta.beginTime != null && System.currentTimeMillis() < meta.beginTime;
+    }
+
+    /**
+     * 秒杀是否已经结束
+     *
+     * @param voucherId 秒杀券id
+     * @return 元数据中有结束时间且当前时间晚于结束时间时返回true
+     */
+    public boolean isEnded(Long voucherId) {
+        Meta meta = getMeta(voucherId);
+        return meta.endTime != null && System.currentTimeMillis() > meta.endTime;
+    }
+
+    /**
+     * 秒杀券元数据变更后，清除本地缓存，并广播给其他节点
+     *
+     * @param voucherId 秒杀券id
+     */
+    public void evict(Long voucherId) {
+        metas.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_META_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 接收其他节点广播的元数据变更消息
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Long voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+        metas.remove(voucherId);
+        log.debug("秒杀券元数据变更：{}", voucherId);
+    }
+
+    private Meta getMeta(Long voucherId) {
+        Meta meta = metas.get(voucherId);
+        if (meta == null || meta.expireTime < System.currentTimeMillis()) {
+            meta = loadMeta(voucherId);
+            metas.put(voucherId, meta);
+        }
+        return meta;
+    }
+
+    private Meta loadMeta(Long voucherId) {
+        List<Object> values = stringRedisTemplate.opsForHash()
+                .multiGet(SECKILL_META_KEY + voucherId, Arrays.asList("shards", "begin", "end"));
+        return new Meta(
+                values.get(0) == null ? 1 : Integer.parseInt(values.get(0).toString()),
+                values.get(1) == null ? null : Long.valueOf(values.get(1).toString()),
+                values.get(2) == null ? null : Long.valueOf(values.get(2).toString()),
+                System.currentTimeMillis() + SECKILL_META_LOCAL_TTL);
+    }
+
+    /**
+     * 秒杀券元数据
+     */
+    private static class Meta {
+        private final int shards;
+        // 秒杀开始、结束时间（毫秒时间戳）
+        private final Long beginTime;
+        private final Long endTime;
+        private final long expireTime;
+
+        Meta(int shards, Long beginTime, Long endTime, long expireTime) {
+            this.shards = shards;
+            this.beginTime = beginTime;
+            this.endTime = endTime;
+            this.expireTime = expireTime;
+        }
+    }
+}
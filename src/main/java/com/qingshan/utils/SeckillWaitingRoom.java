@@ -0,0 +1,136 @@
+package com.qingshan.utils;
+
+import com.qingshan.dto.SeckillQueueDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.qingshan.utils.RedisConstants.*;
+
+/**
+ * 秒杀虚拟等候室
+ * 每张秒杀券在Redis中有一个全局令牌桶，按配置的速率补充令牌，放行一个请求消耗一个令牌，只有被放行的请求才会执行秒杀脚本
+ * 各节点每次从Redis领取一批令牌放在本地，之后的请求直接在本地消耗令牌，每批令牌只访问一次Redis；
+ * 没有领取到令牌时，在Redis给出的等待时间之前本地直接返回排队信息，不再访问Redis
+ * 令牌按到达节点的先后发放，不保证跨节点的先到先得，没有被放行的用户按 retryAfter 重试
+ */
+@Component
+public class SeckillWaitingRoom {
+
+    private static final DefaultRedisScript<List> WAITING_ROOM_SCRIPT;
+
+    static {
+        WAITING_ROOM_SCRIPT = new DefaultRedisScript<>();
+        WAITING_ROOM_SCRIPT.setLocation(new ClassPathResource("seckill-waiting-room.lua"));
+        WAITING_ROOM_SCRIPT.setResultType(List.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Counter localQueued;
+    private final Counter redisQueued;
+    private final Counter localAdmitted;
+    private final Counter redisAdmitted;
+
+    // 每张秒杀券每秒放行的人数，不大于0时关闭等候室
+    private final long rate;
+    // 令牌桶容量，开抢瞬间或者空闲之后最多一次放行的人数
+    private final long burst;
+    // 节点每次从Redis领取的令牌数量
+    private final long batch;
+
+    // 秒杀券id -> 本节点的令牌
+    private final Map<Long, LocalTokens> localTokens = new ConcurrentHashMap<>();
+
+    public SeckillWaitingRoom(StringRedisTemplate stringRedisTemplate,
+                              MeterRegistry meterRegistry,
+                              @Value("${qingshan.seckill.waiting-room.rate:2000}") long rate,
+                              @Value("${qingshan.seckill.waiting-room.burst:2000}") long burst,
+                              @Value("${qingshan.seckill.waiting-room.batch:50}") long batch) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.rate = rate;
+        this.burst = burst;
+        this.batch = Math.max(batch, 1);
+        this.localQueued = meterRegistry.counter("qingshan.seckill.waiting", "result", "queued", "source", "local");
+        this.redisQueued = meterRegistry.counter("qingshan.seckill.waiting", "result", "queued", "source", "redis");
+        this.localAdmitted = meterRegistry.counter("qingshan.seckill.waiting", "result", "admitted", "source", "local");
+        this.redisAdmitted = meterRegistry.counter("qingshan.seckill.waiting", "result", "admitted", "source", "redis");
+    }
+
+    /**
+     * 进入等候室，有令牌时消耗一个令牌放行
+     *
+     * @param voucherId 秒杀券id
+     * @return 排队信息，放行时返回null
+     */
+    public SeckillQueueDTO enter(Long voucherId) {
+        if (rate <= 0) {
+            return null;
+        }
+        LocalTokens tokens = localTokens.computeIfAbsent(voucherId, key -> new LocalTokens());
+        // 同一张秒杀券在本节点同一时间只有一个请求去Redis领取令牌，其他请求等待领取的结果
+        synchronized (tokens) {
+            long now = System.currentTimeMillis();
+            if (tokens.remaining > 0 && now < tokens.expireTime) {
+                tokens.remaining--;
+                localAdmitted.increment();
+                return null;
+            }
+            if (now < tokens.retryTime) {
+                // 上次没有领取到令牌，还没到再次领取的时间
+                localQueued.increment();
+                return queued(tokens.retryTime - now);
+            }
+
+            List<?> result = stringRedisTemplate.execute(WAITING_ROOM_SCRIPT,
+                    Collections.singletonList(SECKILL_WAITING_BUCKET_KEY + voucherId),
+                    String.valueOf(rate), String.valueOf(burst), String.valueOf(batch),
+                    String.valueOf(TimeUnit.HOURS.toSeconds(SECKILL_WAITING_TTL)));
+            long taken = ((Number) result.get(0)).longValue();
+            long wait = ((Number) result.get(1)).longValue();
+            if (taken > 0) {
+                // 当前请求消耗一个，其余留在本地
+                tokens.remaining = taken - 1;
+                tokens.expireTime = now + SECKILL_WAITING_LOCAL_TTL;
+                tokens.retryTime = 0;
+                redisAdmitted.increment();
+                return null;
+            }
+            tokens.remaining = 0;
+            tokens.retryTime = now + wait;
+            redisQueued.increment();
+            return queued(wait);
+        }
+    }
+
+    /**
+     * 按令牌补充速率估算排队位置
+     *
+     * @param wait 预计等待时间（毫秒）
+     * @return 排队信息
+     */
+    private SeckillQueueDTO queued(long wait) {
+        return new SeckillQueueDTO((wait * rate + 999) / 1000, wait);
+    }
+
+    /**
+     * 本节点领取到的一张秒杀券的令牌
+     */
+    private static class LocalTokens {
+        // 剩余的令牌数量
+        private long remaining;
+        // 令牌的过期时间
+        private long expireTime;
+        // 没有领取到令牌时，下一次去Redis领取的时间
+        private long retryTime;
+    }
+}
@@ -8,4 +8,23 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+
+    // 异步下单每批最多处理的订单数量
+    public static final int SECKILL_ORDER_BATCH_SIZE = 200;
+    // 异步下单凑批的最长等待时间（毫秒）
+    public static final long SECKILL_ORDER_BATCH_WAIT = 200L;
+    // 检查新登记的分片订单消息队列的间隔（毫秒）
+    public static final long SECKILL_STREAM_SHARDS_REFRESH = 1000L;
+    // 异步下单每个分区队列的容量
+    public static final int SECKILL_ORDER_PARTITION_CAPACITY = 1024;
+    // 查询秒杀订单处理结果时长轮询的最长等待时间（毫秒）
+    public static final long SECKILL_ORDER_STATUS_MAX_WAIT = 30000L;
+    // 秒杀库存、订单对账每页的数量（SSCAN的COUNT、数据库分页的LIMIT）
+    public static final int SECKILL_RECONCILE_PAGE_SIZE = 500;
+    // 每批认领、取消的超时未支付订单数量
+    public static final int SECKILL_CANCEL_BATCH_SIZE = 500;
+    // 清理秒杀订单日志时每批查询的订单处理结果数量
+    public static final int SECKILL_JOURNAL_SWEEP_BATCH = 1000;
+    // 构建布隆过滤器时每页读取的id数量
+    public static final int BLOOM_BUILD_PAGE_SIZE = 5000;
 }
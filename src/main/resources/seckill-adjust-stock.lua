@@ -0,0 +1,11 @@
+-- 按差值调整一个库存分片，扣减时最多扣到0，返回实际调整的数量
+-- KEYS[1] 库存key，ARGV[1] 差值
+local stock = tonumber(redis.call('get', KEYS[1]) or 0)
+local delta = tonumber(ARGV[1])
+if (stock + delta < 0) then
+    delta = -math.max(stock, 0)
+end
+if (delta ~= 0) then
+    redis.call('incrby', KEYS[1], delta)
+end
+return delta
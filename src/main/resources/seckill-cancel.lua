@@ -0,0 +1,12 @@
+-- 订单取消后归还Redis库存，用户从已下单集合中移除成功时库存加一
+-- 同一个订单只归还一次，已归还的订单id记录在不过期的集合中，重新认领的订单不会把用户重新抢到的名额移除
+-- KEYS[1] 库存key，KEYS[2] 已下单用户集合key，KEYS[3] 已归还库存的订单集合key，三者在同一个分片，ARGV[1] 用户id，ARGV[2] 订单id
+if (redis.call('sismember', KEYS[3], ARGV[2]) == 1) then
+    return 0
+end
+if (redis.call('srem', KEYS[2], ARGV[1]) == 1) then
+    redis.call('incrby', KEYS[1], 1)
+    redis.call('sadd', KEYS[3], ARGV[2])
+    return 1
+end
+return 0
@@ -0,0 +1,9 @@
+-- 认领一批超过支付截止时间的订单，把它们的score推迟一个租期而不是直接删除
+-- 订单取消完成后才从ZSET中删除，认领后宕机没有处理完的订单在租期过后会被重新认领
+-- KEYS[1] 未支付订单ZSET，ARGV[1] 当前时间，ARGV[2] 最多认领的数量，ARGV[3] 认领租期（毫秒）
+local orderIds = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])
+local lease = tonumber(ARGV[1]) + tonumber(ARGV[3])
+for i, orderId in ipairs(orderIds) do
+    redis.call('zadd', KEYS[1], lease, orderId)
+end
+return orderIds
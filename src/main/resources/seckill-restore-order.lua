@@ -0,0 +1,7 @@
+-- 补回Redis中丢失的下单记录，用户加入已下单集合成功时扣减一个库存
+-- KEYS[1] 库存key，KEYS[2] 已下单用户集合key，ARGV[1] 用户id
+if (redis.call('sadd', KEYS[2], ARGV[1]) == 1) then
+    redis.call('incrby', KEYS[1], -1)
+    return 1
+end
+return 0
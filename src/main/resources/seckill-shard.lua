@@ -0,0 +1,65 @@
+-- 分片库存key
+local stockKey = KEYS[1]
+-- 分片订单key
+local orderKey = KEYS[2]
+-- 分片订单消息队列key
+local streamKey = KEYS[3]
+-- 分片元数据key
+local metaKey = KEYS[4]
+-- 分片已抢购用户key，记录默认分片为该分片的用户，无论在哪个分片抢到
+local buyerKey = KEYS[5]
+
+-- 优惠券id
+local voucherId = ARGV[1]
+-- 用户id
+local userId = ARGV[2]
+-- 订单id
+local orderId = ARGV[3]
+-- 是否是用户的默认分片，1：是
+local home = ARGV[4] == '1'
+
+-- 判断是否在秒杀时间段内，以Redis服务器时间为准（毫秒）
+local window = redis.call('hmget', metaKey, 'begin', 'end')
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+if (window[1] and now < tonumber(window[1])) then
+    return 3
+end
+if (window[2] and now > tonumber(window[2])) then
+    return 4
+end
+
+-- 判断用户是否在该分片下过单，默认分片上同时检查在其他分片抢到的记录
+if (redis.call('sismember', orderKey, userId) == 1) then
+    return 2
+end
+if (home and redis.call('sismember', buyerKey, userId) == 1) then
+    return 2
+end
+
+-- 判断分片库存是否充足，分片库存key不存在返回5、库存不足返回1，由调用方继续尝试其他分片
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil) then
+    return 5
+end
+if (stock <= 0) then
+    -- 默认分片库存不足，先占用已抢购标记再去其他分片，同一用户并发的请求在这里被拦下；都没有抢到时由调用方移除
+    if (home) then
+        redis.call('sadd', buyerKey, userId)
+    end
+    return 1
+end
+
+-- 扣减分片库存
+redis.call('incrby', stockKey, -1)
+
+-- 下单，保存用户到该分片的已下单用户set集合中
+redis.call('sadd', orderKey, userId)
+if (home) then
+    redis.call('sadd', buyerKey, userId)
+end
+
+-- 发送订单消息到分片的消息队列中，订单处理结果由调用方在执行脚本之前写入
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+
+return 0
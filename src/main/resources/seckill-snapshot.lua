@@ -0,0 +1,5 @@
+-- 读取一个库存分片的剩余库存与已下单人数
+-- 秒杀脚本同时修改这两个值，在同一个脚本中读取才能保证一致
+-- KEYS[1] 库存key，KEYS[2] 已下单用户集合key
+local stock = tonumber(redis.call('get', KEYS[1]) or 0)
+return {stock, redis.call('scard', KEYS[2])}
@@ -0,0 +1,31 @@
+-- 秒杀虚拟等候室：全局令牌桶按固定速率补充令牌，各节点每次领取一批令牌到本地，放行一个请求消耗一个令牌
+-- KEYS[1] 令牌桶（Hash，tokens：剩余令牌，ts：上次补充的时间）
+-- ARGV[1] 每秒补充数量，ARGV[2] 令牌桶容量，ARGV[3] 每次最多领取的数量，ARGV[4] 过期时间（秒）
+-- 返回 {领取到的令牌数, 没有领取到时预计多久后再来（毫秒）}
+local rate = tonumber(ARGV[1])
+local burst = tonumber(ARGV[2])
+local batch = tonumber(ARGV[3])
+local ttl = ARGV[4]
+
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- 按经过的时间补充令牌，空闲时最多积攒一个桶容量的令牌
+local bucket = redis.call('hmget', KEYS[1], 'tokens', 'ts')
+local tokens = tonumber(bucket[1]) or burst
+local ts = tonumber(bucket[2]) or now
+if (now > ts) then
+    tokens = math.min(tokens + (now - ts) * rate / 1000, burst)
+end
+
+-- 领取整数个令牌，不足一批时有多少领多少
+local taken = math.min(batch, math.floor(tokens))
+tokens = tokens - taken
+redis.call('hset', KEYS[1], 'tokens', tostring(tokens), 'ts', math.max(now, ts))
+redis.call('expire', KEYS[1], ttl)
+
+if (taken > 0) then
+    return {taken, 0}
+end
+-- 一个令牌都没有，等到能领取一批令牌时再来
+return {0, math.ceil((math.min(batch, burst) - tokens) * 1000 / rate)}
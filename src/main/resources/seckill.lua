@@ -2,15 +2,43 @@
 local voucherId = ARGV[1]
 -- 用户id
 local userId = ARGV[2]
+-- 订单id
+local orderId = ARGV[3]
+-- 订单处理结果的过期时间（秒）
+local statusTtl = ARGV[4]
 
 -- 库存key
 local stockKey = 'qingshan:seckill:stock:' .. voucherId
 -- 订单key
 local orderKey = 'qingshan:seckill:order:' .. voucherId
+-- 订单消息队列key
+local streamKey = 'qingshan:stream:orders'
+-- 秒杀券元数据key
+local metaKey = 'qingshan:seckill:meta:' .. voucherId
+-- 订单处理结果key
+local statusKey = 'qingshan:seckill:status:' .. orderId
 
 -- 业务
+-- 判断是否在秒杀时间段内，以Redis服务器时间为准（毫秒）
+local window = redis.call('hmget', metaKey, 'begin', 'end')
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+if (window[1] and now < tonumber(window[1])) then
+    -- 秒杀尚未开始，返回3
+    return 3
+end
+if (window[2] and now > tonumber(window[2])) then
+    -- 秒杀已经结束，返回4
+    return 4
+end
+
 -- 判断库存是否充足
-if (tonumber(redis.call('get', stockKey)) <= 0) then
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil) then
+    -- 库存key不存在（Redis数据丢失、尚未预热），返回5
+    return 5
+end
+if (stock <= 0) then
     -- 库存不足，返回1
     return 1
 end
@@ -27,5 +55,12 @@ redis.call('incrby', stockKey, -1)
 -- 下单，保存用户到已经下单用户set集合中
 redis.call('sadd', orderKey, userId)
 
+-- 发送订单消息到队列中，与扣减库存在同一个脚本内完成，保证不会丢单
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+
+-- 记录订单处理中，供客户端查询处理结果
+redis.call('hset', statusKey, 'status', 'PENDING', 'userId', userId)
+redis.call('expire', statusKey, statusTtl)
+
 -- 有抢券资格返回0
-return 0
\ No newline at end of file
+return 0
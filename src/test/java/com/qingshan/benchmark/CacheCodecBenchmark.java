@@ -0,0 +1,142 @@
+package com.qingshan.benchmark;
+
+import com.qingshan.dto.UserDTO;
+import com.qingshan.entity.Blog;
+import com.qingshan.entity.Shop;
+import com.qingshan.utils.BinaryCacheCodec;
+import com.qingshan.utils.CacheCodec;
+import com.qingshan.utils.JsonCacheCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存编码基准测试，对比JSON、二进制、二进制+压缩三种编码的数据大小与编解码耗时
+ * 数据取自 qingshan.sql 中的商户、博客以及登录用户，启动时先打印每种编码写入Redis的字节数
+ * 运行方式：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.qingshan.benchmark.CacheCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    private static final String[] CODECS = {"json", "binary", "binary-deflate"};
+    private static final String[] ENTITIES = {"shop", "blog", "user"};
+
+    @Param({"json", "binary", "binary-deflate"})
+    private String codecName;
+
+    @Param({"shop", "blog", "user"})
+    private String entity;
+
+    private CacheCodec codec;
+    private Object value;
+    private Class<?> type;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        codec = codec(codecName);
+        value = sample(entity);
+        type = value.getClass();
+        encoded = codec.encode(value);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(value);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return codec.decode(encoded, type);
+    }
+
+    private static CacheCodec codec(String name) {
+        switch (name) {
+            case "json":
+                return new JsonCacheCodec();
+            case "binary":
+                return new BinaryCacheCodec(0);
+            case "binary-deflate":
+                return new BinaryCacheCodec(512);
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    private static Object sample(String entity) {
+        switch (entity) {
+            case "shop":
+                return new Shop()
+                        .setId(1L)
+                        .setName("101茶餐厅")
+                        .setTypeId(1L)
+                        .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg,"
+                                + "https://qcloud.dpfile.com/pc/IOf6VX3qaBgFXFVgp75w-KKJmWZjFc8GXDU8g9bQC6YGCpAmG00QbfT4vCCBj7njuzFvxlbkWx5uwqY2qcjixFEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vmIU_8ZGOT1OjpJmLxG6urQ.jpg")
+                        .setArea("大关")
+                        .setAddress("金华路锦昌文华苑29号")
+                        .setX(120.149192)
+                        .setY(30.316078)
+                        .setAvgPrice(80L)
+                        .setSold(4215)
+                        .setComments(3035)
+                        .setScore(37)
+                        .setOpenHours("10:00-22:00")
+                        .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                        .setUpdateTime(LocalDateTime.of(2023, 2, 11, 11, 25, 46));
+            case "blog":
+                return new Blog()
+                        .setId(5L)
+                        .setShopId(1L)
+                        .setUserId(2L)
+                        .setTitle("人均30💰杭州这家港式茶餐厅我疯狂打call‼️")
+                        .setImages("/imgs/blogs/4/7/863cc302-d150-420d-a596-b16e9232a1a6.jpg,/imgs/blogs/11/12/8b37d208-9414-4e78-b065-9199647bb3e3.jpg,"
+                                + "/imgs/blogs/4/1/fa74a6d6-3026-4cb7-b0b6-35abb1e52d11.jpg,/imgs/blogs/9/12/ac2ce2fb-0605-4f14-82cc-c962b8c86688.jpg,"
+                                + "/imgs/blogs/4/0/26a7cd7e-6320-432c-a0b4-1b7418f45ec7.jpg,/imgs/blogs/15/9/cea51d9b-ac15-49f6-b9f1-9cf81e9b9c85.jpg")
+                        .setContent("又吃到一家好吃的茶餐厅🍴环境是怀旧tvb港风📺边吃边拍照片📷几十种菜品均价都在20+💰可以是很平价了！<br>·<br>"
+                                + "店名：九记冰厅(远洋店)<br>地址：杭州市丽水路远洋乐堤港负一楼（溜冰场旁边）<br>·<br>"
+                                + "✔️黯然销魂饭（38💰）<br>这碗饭我吹爆！米饭上盖满了甜甜的叉烧 还有两颗溏心蛋🍳每一粒米饭都裹着浓郁的酱汁 光盘了<br>·<br>"
+                                + "✔️铜锣湾漏奶华（28💰）<br>黄油吐司烤的脆脆的 上面洒满了可可粉🍫一刀切开 奶盖流心像瀑布一样💦<br>·<br>"
+                                + "✔️菠萝油（16💰）<br>面包酥软 外皮香甜 中间夹着冰凉的黄油 一口下去甜甜咸咸的 冷热交替的口感 很治愈<br>·<br>"
+                                + "✔️港式炒面（28💰）<br>面条很筋道 锅气十足 还有豆芽和洋葱 配上一杯冻柠茶 绝了<br>")
+                        .setLiked(3)
+                        .setComments(104)
+                        .setCreateTime(LocalDateTime.of(2021, 12, 28, 19, 50, 1))
+                        .setUpdateTime(LocalDateTime.of(2022, 3, 10, 14, 26, 34));
+            case "user":
+                UserDTO user = new UserDTO();
+                user.setId(1010L);
+                user.setNickName("user_slxaxy2au9");
+                user.setIcon("/imgs/icons/kkjtbcr.jpg");
+                return user;
+            default:
+                throw new IllegalArgumentException(entity);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        // 写入Redis的字节数
+        System.out.printf("%-8s%12s%12s%16s%n", "", CODECS[0], CODECS[1], CODECS[2]);
+        for (String entity : ENTITIES) {
+            System.out.printf("%-8s", entity);
+            for (String codec : CODECS) {
+                System.out.printf(codec.length() > 8 ? "%16d" : "%12d", codec(codec).encode(sample(entity)).length);
+            }
+            System.out.println();
+        }
+
+        Options options = new OptionsBuilder()
+                .include(CacheCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,81 @@
+package com.qingshan.benchmark;
+
+import com.qingshan.utils.RedisIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisIdWorker吞吐量基准测试，对比每个id自增一次Redis与号段模式
+ * 默认启动一个内嵌的redis-server，也可以通过 -Dredis.port 指定本机已有的Redis
+ * 运行方式：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.qingshan.benchmark.RedisIdWorkerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(8)
+@Fork(1)
+public class RedisIdWorkerBenchmark {
+
+    private RedisServer server;
+    private LettuceConnectionFactory factory;
+    private RedisIdWorker incrWorker;
+    private RedisIdWorker segmentWorker;
+
+    @Setup
+    public void setup() throws IOException {
+        int port = Integer.getInteger("redis.port", 0);
+        if (port == 0) {
+            port = 6398;
+            server = RedisServer.newRedisServer().port(port).setting("save \"\"").build();
+            server.start();
+        }
+        factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        factory.afterPropertiesSet();
+        StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(factory);
+        incrWorker = new RedisIdWorker(stringRedisTemplate, 0);
+        segmentWorker = new RedisIdWorker(stringRedisTemplate, 1000);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        factory.destroy();
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    /**
+     * 每个id执行一次 INCR
+     */
+    @Benchmark
+    public long incrPerId() {
+        return incrWorker.nextId("bench-incr");
+    }
+
+    /**
+     * 号段模式，每1000个id执行一次 INCRBY
+     */
+    @Benchmark
+    public long segment() {
+        return segmentWorker.nextId("bench-segment");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(RedisIdWorkerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
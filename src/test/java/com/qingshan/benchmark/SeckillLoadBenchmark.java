@@ -0,0 +1,347 @@
+package com.qingshan.benchmark;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.qingshan.QingShanApplication;
+import com.qingshan.entity.Voucher;
+import com.qingshan.service.IVoucherService;
+import com.qingshan.utils.SeckillKeyUtils;
+import com.qingshan.utils.SeckillOrderStatus;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.qingshan.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.qingshan.utils.RedisConstants.LOGIN_USER_TTL;
+import static com.qingshan.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static com.qingshan.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀接口压测，在本机启动内嵌的redis-server，以H2（MySQL模式）作为数据库替身启动整个应用
+ * 模拟大量已登录用户（token与 RefreshTokenInterceptor 兼容）并发请求 /voucher-order/seckill/{id}
+ * 报告请求延迟 p50/p99、每秒抢单成功数、订单全部落库的耗时，并校验是否超卖、是否一人多单、订单处理结果是否正确
+ * 运行方式：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.qingshan.benchmark.SeckillLoadBenchmark
+ * 可选参数：-Dusers=5000 -Drequests=2 -Dstock=1000 -Dshards=0 -Dconcurrency=64 -Dpartitions=4
+ */
+public class SeckillLoadBenchmark {
+
+    // 模拟的用户数量
+    private static final int USERS = Integer.getInteger("users", 5000);
+    // 每个用户的请求次数，大于1时同时压测重复下单的拦截
+    private static final int REQUESTS_PER_USER = Integer.getInteger("requests", 2);
+    // 秒杀券库存
+    private static final int STOCK = Integer.getInteger("stock", 1000);
+    // 库存分片数量，小于等于1时不分片
+    private static final int SHARDS = Integer.getInteger("shards", 0);
+    // 并发请求的线程数
+    private static final int CONCURRENCY = Integer.getInteger("concurrency", 64);
+    // 订单处理的分区数量
+    private static final int PARTITIONS = Integer.getInteger("partitions", 4);
+    // 等待订单全部落库的超时时间（毫秒）
+    private static final long PERSIST_TIMEOUT = Long.getLong("persist.timeout", 60000L);
+    private static final int REDIS_PORT = Integer.getInteger("redis.port", 6399);
+    // 本次压测使用的秒杀订单日志文件
+    private static final File JOURNAL = new File(System.getProperty("java.io.tmpdir"), "qingshan-load-" + REDIS_PORT + ".journal");
+
+    public static void main(String[] args) throws Exception {
+        RedisServer redis = RedisServer.newRedisServer().port(REDIS_PORT).setting("save \"\"").build();
+        redis.start();
+        boolean passed;
+        try {
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(QingShanApplication.class)
+                    .properties(applicationProperties())
+                    .run(args);
+            try {
+                passed = run(context);
+            } finally {
+                context.close();
+            }
+        } finally {
+            redis.stop();
+            JOURNAL.delete();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * 应用配置，数据源指向H2，Redis指向内嵌的redis-server
+     */
+    private static Map<String, Object> applicationProperties() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("server.port", 0);
+        properties.put("server.tomcat.threads.max", Math.max(CONCURRENCY, 200));
+        properties.put("spring.main.banner-mode", "off");
+        properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        properties.put("spring.datasource.url", "jdbc:h2:mem:qingshan;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        properties.put("spring.datasource.username", "sa");
+        properties.put("spring.datasource.schema", "classpath:benchmark/schema-h2.sql");
+        properties.put("spring.datasource.initialization-mode", "always");
+        properties.put("spring.redis.host", "127.0.0.1");
+        properties.put("spring.redis.port", REDIS_PORT);
+        properties.put("mybatis-plus.type-aliases-package", "com.qingshan.entity");
+        properties.put("qingshan.seckill.order-partitions", PARTITIONS);
+        properties.put("qingshan.seckill.journal.path", JOURNAL.getAbsolutePath());
+        // H2中只有秒杀相关的表，不构建商户、博客、用户的布隆过滤器
+        properties.put("qingshan.bloom.enabled", false);
+        properties.put("logging.level.root", "WARN");
+        return properties;
+    }
+
+    private static boolean run(ConfigurableApplicationContext context) throws Exception {
+        StringRedisTemplate stringRedisTemplate = context.getBean(StringRedisTemplate.class);
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        String url = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port")
+                + "/voucher-order/seckill/";
+
+        Long voucherId = createVoucher(context.getBean(IVoucherService.class));
+        String[] tokens = loginUsers(stringRedisTemplate);
+
+        // 每个用户请求 REQUESTS_PER_USER 次，打乱顺序
+        int total = USERS * REQUESTS_PER_USER;
+        int[] requests = new int[total];
+        for (int i = 0; i < total; i++) {
+            requests[i] = i % USERS;
+        }
+        Random random = new Random(42);
+        for (int i = total - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = requests[i];
+            requests[i] = requests[j];
+            requests[j] = tmp;
+        }
+
+        long[] latencies = new long[total];
+        AtomicInteger cursor = new AtomicInteger();
+        LongAdder accepted = new LongAdder();
+        LongAdder errors = new LongAdder();
+        Map<String, LongAdder> rejected = new ConcurrentHashMap<>();
+        Set<Integer> acceptedUsers = ConcurrentHashMap.newKeySet();
+        Set<Long> acceptedOrders = ConcurrentHashMap.newKeySet();
+        LongAdder duplicateAccepted = new LongAdder();
+        AtomicLong lastAccepted = new AtomicLong();
+
+        System.out.printf("用户数=%d，每人请求=%d，库存=%d，分片=%d，并发=%d，分区=%d%n",
+                USERS, REQUESTS_PER_USER, STOCK, SHARDS, CONCURRENCY, PARTITIONS);
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+        CountDownLatch latch = new CountDownLatch(CONCURRENCY);
+        long begin = System.nanoTime();
+        for (int t = 0; t < CONCURRENCY; t++) {
+            executor.execute(() -> {
+                try {
+                    int index;
+                    while ((index = cursor.getAndIncrement()) < total) {
+                        int user = requests[index];
+                        long start = System.nanoTime();
+                        JSONObject result = post(url + voucherId, tokens[user]);
+                        long end = System.nanoTime();
+                        latencies[index] = end - start;
+                        if (result == null) {
+                            errors.increment();
+                        } else if (Boolean.TRUE.equals(result.getBool("success"))) {
+                            accepted.increment();
+                            acceptedOrders.add(result.getLong("data"));
+                            lastAccepted.accumulateAndGet(end, Math::max);
+                            if (!acceptedUsers.add(user)) {
+                                duplicateAccepted.increment();
+                            }
+                        } else {
+                            rejected.computeIfAbsent(StrUtil.nullToDefault(result.getStr("errorMsg"), "未知"),
+                                    key -> new LongAdder()).increment();
+                        }
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long end = System.nanoTime();
+        executor.shutdown();
+
+        // 等待订单全部落库
+        long acceptedCount = accepted.sum();
+        long persisted = countOrders(jdbcTemplate, voucherId);
+        long deadline = end + TimeUnit.MILLISECONDS.toNanos(PERSIST_TIMEOUT);
+        while (persisted < acceptedCount && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            persisted = countOrders(jdbcTemplate, voucherId);
+        }
+        long persistedAt = System.nanoTime();
+
+        // 报告
+        long elapsed = end - begin;
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf("请求总数：%d，耗时 %d ms，%.0f 请求/秒%n",
+                total, TimeUnit.NANOSECONDS.toMillis(elapsed), total * 1e9 / elapsed);
+        System.out.printf("延迟：p50 %.2f ms，p99 %.2f ms，max %.2f ms%n",
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6, sorted[total - 1] / 1e6);
+        System.out.printf("抢单成功：%d，%.0f 单/秒（按全部成功订单的完成时间计算）%n",
+                acceptedCount, acceptedCount == 0 ? 0 : acceptedCount * 1e9 / (lastAccepted.get() - begin));
+        rejected.forEach((message, count) -> System.out.printf("被拒绝：%s × %d%n", message, count.sum()));
+        System.out.printf("请求失败：%d%n", errors.sum());
+        System.out.printf("订单落库：%d / %d，压测结束后 %d ms 全部落库，从压测开始计 %d ms%n",
+                persisted, acceptedCount,
+                TimeUnit.NANOSECONDS.toMillis(persistedAt - end), TimeUnit.NANOSECONDS.toMillis(persistedAt - begin));
+
+        // 校验
+        Integer dbStock = jdbcTemplate.queryForObject(
+                "SELECT stock FROM tb_seckill_voucher WHERE voucher_id = ?", Integer.class, voucherId);
+        Long duplicateOrders = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM (SELECT user_id FROM tb_voucher_order " +
+                "WHERE voucher_id = ? GROUP BY user_id HAVING COUNT(*) > 1) t", Long.class, voucherId);
+        long redisStock = redisStock(stringRedisTemplate, voucherId);
+        long createdOrders = countCreatedOrders(stringRedisTemplate, acceptedOrders);
+        System.out.printf("订单处理结果为 CREATED：%d / %d%n", createdOrders, acceptedOrders.size());
+
+        boolean passed = true;
+        passed &= check("订单全部落库", persisted == acceptedCount);
+        passed &= check("没有超卖（订单数 <= 库存）", persisted <= STOCK);
+        passed &= check("数据库库存与订单数一致", dbStock != null && dbStock == STOCK - persisted && dbStock >= 0);
+        passed &= check("Redis库存与抢单成功数一致", redisStock == STOCK - acceptedCount && redisStock >= 0);
+        passed &= check("订单处理结果全部为下单成功", createdOrders == acceptedCount);
+        passed &= check("没有一人多单（响应）", duplicateAccepted.sum() == 0);
+        passed &= check("没有一人多单（数据库）", duplicateOrders != null && duplicateOrders == 0);
+        passed &= check("抢单成功数等于 min(用户数, 库存)", Math.min(USERS, STOCK) == acceptedCount);
+        return passed;
+    }
+
+    private static Long createVoucher(IVoucherService voucherService) {
+        LocalDateTime now = LocalDateTime.now();
+        Voucher voucher = new Voucher()
+                .setShopId(1L)
+                .setTitle("压测秒杀券")
+                .setPayValue(8000L)
+                .setActualValue(10000L)
+                .setType(1)
+                .setStatus(1)
+                .setStock(STOCK)
+                .setShards(SHARDS > 1 ? SHARDS : null)
+                .setBeginTime(now.minusMinutes(1))
+                .setEndTime(now.plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    /**
+     * 批量写入登录token，格式与 UserServiceImpl.login 保存的用户信息一致
+     */
+    private static String[] loginUsers(StringRedisTemplate stringRedisTemplate) {
+        String[] tokens = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            tokens[i] = UUID.randomUUID().toString().replace("-", "");
+        }
+        long ttl = TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (int i = 0; i < USERS; i++) {
+                Map<String, String> user = new HashMap<>();
+                user.put("id", String.valueOf(10000L + i));
+                user.put("nickName", "user_" + i);
+                user.put("icon", "");
+                stringConnection.hMSet(LOGIN_USER_KEY + tokens[i], user);
+                stringConnection.expire(LOGIN_USER_KEY + tokens[i], ttl);
+            }
+            return null;
+        });
+        return tokens;
+    }
+
+    /**
+     * 发送秒杀请求，返回响应的Result，请求失败时返回null
+     */
+    private static JSONObject post(String url, String token) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("authorization", token);
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(30000);
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            String body = in == null ? "" : read(in);
+            if (status != 200 || body.isEmpty()) {
+                return null;
+            }
+            return JSONUtil.parseObj(body);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        // 读完响应体，连接才能被复用
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static long countOrders(JdbcTemplate jdbcTemplate, Long voucherId) {
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM tb_voucher_order WHERE voucher_id = ?", Long.class, voucherId);
+        return count == null ? 0 : count;
+    }
+
+    private static long redisStock(StringRedisTemplate stringRedisTemplate, Long voucherId) {
+        if (SHARDS <= 1) {
+            return Long.parseLong(stringRedisTemplate.opsForValue().get(SECKILL_STOCK_KEY + voucherId));
+        }
+        long stock = 0;
+        for (int i = 0; i < SHARDS; i++) {
+            stock += Long.parseLong(stringRedisTemplate.opsForValue().get(SeckillKeyUtils.stockKey(voucherId, i)));
+        }
+        return stock;
+    }
+
+    /**
+     * 统计订单处理结果为 CREATED 的订单数量
+     */
+    private static long countCreatedOrders(StringRedisTemplate stringRedisTemplate, Collection<Long> orderIds) {
+        List<Object> statuses = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Long orderId : orderIds) {
+                stringConnection.hGet(SECKILL_ORDER_STATUS_KEY + orderId, "status");
+            }
+            return null;
+        });
+        return statuses.stream().filter(SeckillOrderStatus.CREATED::equals).count();
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(sorted.length * p) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static boolean check(String name, boolean ok) {
+        System.out.printf("[%s] %s%n", ok ? "通过" : "失败", name);
+        return ok;
+    }
+}
@@ -0,0 +1,117 @@
+package com.qingshan.benchmark;
+
+import com.qingshan.utils.SeckillKeyUtils;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import redis.embedded.RedisServer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分片库存秒杀吞吐量基准测试，对比不同分片数量K下 seckill-shard.lua 的吞吐量
+ * 默认在本机启动一个内嵌的redis-server，所有分片在同一个节点上，测量分片脚本本身的开销；
+ * 通过 -Dredis.cluster=host1:port1,host2:port2 指定真实的Redis Cluster，分片按hash tag分散到各个主节点，
+ * 脚本访问的库存、订单集合、已抢购集合、元数据、消息队列都在分片的hash tag下，不会出现CROSSSLOT
+ * 运行方式：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.qingshan.benchmark.SeckillShardBenchmark
+ */
+public class SeckillShardBenchmark {
+
+    private static final long VOUCHER_ID = 1L;
+    // 压测线程数
+    private static final int THREADS = Integer.getInteger("threads", 64);
+    // 每轮压测时长（毫秒）
+    private static final long DURATION = Long.getLong("duration", 5000L);
+    private static final int REDIS_PORT = Integer.getInteger("redis.port", 6390);
+    // 参与对比的分片数量
+    private static final int[] SHARDS = {1, 2, 4, 8};
+
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_SCRIPT;
+
+    static {
+        SECKILL_SHARD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_SCRIPT.setLocation(new ClassPathResource("seckill-shard.lua"));
+        SECKILL_SHARD_SCRIPT.setResultType(Long.class);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String cluster = System.getProperty("redis.cluster");
+        RedisServer server = null;
+        LettuceConnectionFactory factory;
+        if (cluster == null) {
+            server = RedisServer.newRedisServer().port(REDIS_PORT).setting("save \"\"").build();
+            server.start();
+            factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", REDIS_PORT));
+        } else {
+            factory = new LettuceConnectionFactory(new RedisClusterConfiguration(Arrays.asList(cluster.split(","))));
+        }
+        factory.afterPropertiesSet();
+        try {
+            StringRedisTemplate template = new StringRedisTemplate(factory);
+            // 预热一轮，排除JIT的影响
+            run(template, SHARDS[0]);
+            for (int shards : SHARDS) {
+                double opsPerSecond = run(template, shards);
+                System.out.printf("K=%d，%s，线程数=%d：%.0f 单/秒%n",
+                        shards, cluster == null ? "单节点" : "Cluster", THREADS, opsPerSecond);
+            }
+        } finally {
+            factory.destroy();
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    private static double run(StringRedisTemplate template, int shards) throws InterruptedException {
+        // Cluster下不同分片的key在不同slot，逐个删除
+        for (int i = 0; i < shards; i++) {
+            template.delete(Arrays.asList(SeckillKeyUtils.stockKey(VOUCHER_ID, i),
+                    SeckillKeyUtils.orderKey(VOUCHER_ID, i), SeckillKeyUtils.streamKey(VOUCHER_ID, i),
+                    SeckillKeyUtils.buyerKey(VOUCHER_ID, i)));
+            // 库存足够大，压测期间不会售罄
+            template.opsForValue().set(SeckillKeyUtils.stockKey(VOUCHER_ID, i), String.valueOf(Integer.MAX_VALUE));
+        }
+        List<List<String>> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(Arrays.asList(SeckillKeyUtils.stockKey(VOUCHER_ID, i), SeckillKeyUtils.orderKey(VOUCHER_ID, i),
+                    SeckillKeyUtils.streamKey(VOUCHER_ID, i), SeckillKeyUtils.metaKey(VOUCHER_ID, i),
+                    SeckillKeyUtils.buyerKey(VOUCHER_ID, i)));
+        }
+
+        AtomicLong userIds = new AtomicLong();
+        LongAdder accepted = new LongAdder();
+        long deadline = System.currentTimeMillis() + DURATION;
+        CountDownLatch latch = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(() -> {
+                while (System.currentTimeMillis() < deadline) {
+                    long userId = userIds.incrementAndGet();
+                    int home = SeckillKeyUtils.shardOf(userId, shards);
+                    for (int i = 0; i < shards; i++) {
+                        int shard = (home + i) % shards;
+                        Long result = template.execute(SECKILL_SHARD_SCRIPT, keys.get(shard),
+                                String.valueOf(VOUCHER_ID), String.valueOf(userId), String.valueOf(userId), i == 0 ? "1" : "0");
+                        if (result == null || result != 1) {
+                            if (result != null && result == 0) {
+                                accepted.increment();
+                            }
+                            break;
+                        }
+                    }
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        return accepted.sum() * 1000.0 / DURATION;
+    }
+}
@@ -0,0 +1,144 @@
+package com.qingshan.benchmark;
+
+import com.qingshan.QingShanApplication;
+import com.qingshan.entity.VoucherOrder;
+import com.qingshan.service.IVoucherOrderService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 订单入库吞吐量基准测试，以H2（MySQL模式）作为数据库替身启动整个应用（Redis为内嵌的redis-server）
+ * 直接调用 IVoucherOrderService 的代理对象，对比逐条事务 createVoucherOrder 与批量事务 createVoucherOrderBatch，
+ * 经过 VoucherOrderMapper.xml 中的 INSERT IGNORE 以及 MyBatis-Plus 的扣减库存，与异步下单线程执行的代码相同
+ * 运行方式：mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.qingshan.benchmark.VoucherOrderBatchBenchmark
+ * 可选参数：-Dorders=20000 -Dvouchers=4 -Dbatch=200
+ */
+public class VoucherOrderBatchBenchmark {
+
+    // 每轮下单数量
+    private static final int ORDERS = Integer.getInteger("orders", 20000);
+    // 参与秒杀的优惠券数量
+    private static final int VOUCHERS = Integer.getInteger("vouchers", 4);
+    // 每批订单数量，与异步下单的 SECKILL_ORDER_BATCH_SIZE 对应
+    private static final int BATCH_SIZE = Integer.getInteger("batch", 200);
+    private static final int REDIS_PORT = Integer.getInteger("redis.port", 6398);
+    private static final File JOURNAL = new File(System.getProperty("java.io.tmpdir"), "qingshan-batch-" + REDIS_PORT + ".journal");
+
+    public static void main(String[] args) throws Exception {
+        RedisServer redis = RedisServer.newRedisServer().port(REDIS_PORT).setting("save \"\"").build();
+        redis.start();
+        try {
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(QingShanApplication.class)
+                    .properties(applicationProperties())
+                    .run(args);
+            try {
+                run(context.getBean(IVoucherOrderService.class), context.getBean(JdbcTemplate.class));
+            } finally {
+                context.close();
+            }
+        } finally {
+            redis.stop();
+            JOURNAL.delete();
+        }
+    }
+
+    private static Map<String, Object> applicationProperties() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("server.port", 0);
+        properties.put("spring.main.banner-mode", "off");
+        properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        properties.put("spring.datasource.url", "jdbc:h2:mem:qingshan-batch;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        properties.put("spring.datasource.username", "sa");
+        properties.put("spring.datasource.schema", "classpath:benchmark/schema-h2.sql");
+        properties.put("spring.datasource.initialization-mode", "always");
+        properties.put("spring.redis.host", "127.0.0.1");
+        properties.put("spring.redis.port", REDIS_PORT);
+        properties.put("qingshan.seckill.journal.path", JOURNAL.getAbsolutePath());
+        properties.put("qingshan.bloom.enabled", false);
+        properties.put("logging.level.root", "WARN");
+        return properties;
+    }
+
+    private static void run(IVoucherOrderService voucherOrderService, JdbcTemplate jdbcTemplate) {
+        // 预热一轮，排除JIT的影响
+        reset(jdbcTemplate);
+        runSingle(voucherOrderService, ORDERS / 4, 0);
+        reset(jdbcTemplate);
+        runBatch(voucherOrderService, ORDERS / 4, 0);
+
+        reset(jdbcTemplate);
+        long single = runSingle(voucherOrderService, ORDERS, ORDERS);
+        verify(jdbcTemplate);
+        reset(jdbcTemplate);
+        long batch = runBatch(voucherOrderService, ORDERS, ORDERS);
+        verify(jdbcTemplate);
+
+        System.out.printf("逐条入库：%d 单，耗时 %d ms，%.0f 单/秒%n", ORDERS, single, ORDERS * 1000.0 / single);
+        System.out.printf("批量入库：%d 单（每批 %d），耗时 %d ms，%.0f 单/秒%n", ORDERS, BATCH_SIZE, batch, ORDERS * 1000.0 / batch);
+    }
+
+    /**
+     * 清空订单，每种优惠券的库存重置为订单总数
+     */
+    private static void reset(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.update("DELETE FROM tb_voucher_order");
+        jdbcTemplate.update("DELETE FROM tb_seckill_voucher");
+        for (int v = 1; v <= VOUCHERS; v++) {
+            jdbcTemplate.update("INSERT INTO tb_seckill_voucher (voucher_id, stock) VALUES (?, ?)", v, ORDERS);
+        }
+    }
+
+    private static VoucherOrder order(long id, int i) {
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(id);
+        voucherOrder.setUserId((long) i);
+        voucherOrder.setVoucherId((long) (i % VOUCHERS + 1));
+        return voucherOrder;
+    }
+
+    /**
+     * 逐条事务入库
+     */
+    private static long runSingle(IVoucherOrderService voucherOrderService, int orders, int idOffset) {
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < orders; i++) {
+            voucherOrderService.createVoucherOrder(order(idOffset + i, i));
+        }
+        return System.currentTimeMillis() - begin;
+    }
+
+    /**
+     * 批量事务入库
+     */
+    private static long runBatch(IVoucherOrderService voucherOrderService, int orders, int idOffset) {
+        long begin = System.currentTimeMillis();
+        List<VoucherOrder> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < orders; i++) {
+            batch.add(order(idOffset + i, i));
+            if (batch.size() == BATCH_SIZE || i == orders - 1) {
+                voucherOrderService.createVoucherOrderBatch(batch);
+                batch.clear();
+            }
+        }
+        return System.currentTimeMillis() - begin;
+    }
+
+    /**
+     * 校验订单全部入库，库存扣减正确
+     */
+    private static void verify(JdbcTemplate jdbcTemplate) {
+        Long orders = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM tb_voucher_order", Long.class);
+        Long stock = jdbcTemplate.queryForObject("SELECT SUM(stock) FROM tb_seckill_voucher", Long.class);
+        if (orders == null || orders != ORDERS || stock == null || stock != (long) ORDERS * VOUCHERS - ORDERS) {
+            throw new IllegalStateException("订单入库结果不正确：订单数 " + orders + "，剩余库存 " + stock);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.qingshan.utils;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 二进制缓存编码单元测试：各类型字段、空值位图、变长整数的正负边界、压缩与不压缩、逻辑过期、字段布局指纹
+ */
+public class BinaryCacheCodecTest {
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec(1024);
+
+    /**
+     * 覆盖所有字段类型的测试对象，字段声明顺序与字段名顺序不同
+     */
+    static class Sample {
+        private Long zLong;
+        private long aLong;
+        private Integer count;
+        private int score;
+        private Double price;
+        private Boolean open;
+        private String name;
+        private LocalDateTime time;
+        private List<Long> ids;
+        private transient String ignored;
+        private static String constant = "static";
+    }
+
+    /**
+     * 与 Sample 字段名相同、类型不同
+     */
+    static class ChangedSample {
+        private Long zLong;
+        private long aLong;
+        private Long count;
+        private int score;
+        private Double price;
+        private Boolean open;
+        private String name;
+        private LocalDateTime time;
+        private List<Long> ids;
+    }
+
+    private static Sample sample() {
+        Sample sample = new Sample();
+        sample.zLong = Long.MIN_VALUE;
+        sample.aLong = Long.MAX_VALUE;
+        sample.count = -1;
+        sample.score = Integer.MIN_VALUE;
+        sample.price = -0.5;
+        sample.open = true;
+        sample.name = "青山 qingshan";
+        sample.time = LocalDateTime.of(1969, 12, 31, 23, 59, 59, 123456789);
+        sample.ids = Arrays.asList(1L, -2L, 3L);
+        sample.ignored = "ignored";
+        return sample;
+    }
+
+    private static void assertSampleEquals(Sample expected, Sample actual) {
+        assertEquals(expected.zLong, actual.zLong);
+        assertEquals(expected.aLong, actual.aLong);
+        assertEquals(expected.count, actual.count);
+        assertEquals(expected.score, actual.score);
+        assertEquals(expected.price, actual.price);
+        assertEquals(expected.open, actual.open);
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.time, actual.time);
+        assertEquals(expected.ids, actual.ids);
+    }
+
+    @Test
+    public void roundTripAllKinds() {
+        Sample sample = sample();
+        byte[] data = codec.encode(sample);
+        assertTrue(codec.canDecode(data));
+        assertEquals(0, data[1]);
+
+        Sample decoded = codec.decode(data, Sample.class);
+        assertSampleEquals(sample, decoded);
+        assertNull(decoded.ignored);
+    }
+
+    @Test
+    public void roundTripNulls() {
+        Sample sample = new Sample();
+        sample.aLong = 0;
+        sample.name = "";
+        Sample decoded = codec.decode(codec.encode(sample), Sample.class);
+        assertSampleEquals(sample, decoded);
+        assertNull(decoded.zLong);
+        assertNull(decoded.time);
+        assertNull(decoded.ids);
+    }
+
+    @Test
+    public void zigZagSmallNumbersUseOneByte() {
+        Sample positive = new Sample();
+        positive.count = 63;
+        Sample negative = new Sample();
+        negative.count = -64;
+        Sample empty = new Sample();
+        int base = codec.encode(empty).length;
+        // long类型的aLong总是写入，count为1个字节
+        assertEquals(base + 1, codec.encode(positive).length);
+        assertEquals(base + 1, codec.encode(negative).length);
+        assertEquals(-64, (int) codec.decode(codec.encode(negative), Sample.class).count);
+    }
+
+    @Test
+    public void compressesLargeBody() {
+        Sample sample = sample();
+        char[] text = new char[4096];
+        Arrays.fill(text, 'q');
+        sample.name = new String(text);
+        byte[] data = codec.encode(sample);
+        assertEquals(1, data[1] & 1);
+        assertTrue(data.length < text.length);
+        assertSampleEquals(sample, codec.decode(data, Sample.class));
+    }
+
+    @Test
+    public void keepsBodyUncompressedWhenDeflateIsNotSmaller() {
+        // 正文只有几个字节，超过阈值但压缩后反而变大
+        BinaryCacheCodec smallThreshold = new BinaryCacheCodec(1);
+        Sample sample = new Sample();
+        sample.count = 1;
+        byte[] data = smallThreshold.encode(sample);
+        assertEquals(0, data[1] & 1);
+        assertArrayEquals(codec.encode(sample), data);
+        assertEquals(1, (int) codec.decode(data, Sample.class).count);
+    }
+
+    @Test
+    public void compressionDisabled() {
+        BinaryCacheCodec uncompressed = new BinaryCacheCodec(0);
+        Sample sample = sample();
+        char[] text = new char[4096];
+        Arrays.fill(text, 'q');
+        sample.name = new String(text);
+        byte[] data = uncompressed.encode(sample);
+        assertEquals(0, data[1] & 1);
+        assertSampleEquals(sample, codec.decode(data, Sample.class));
+    }
+
+    @Test
+    public void roundTripLogical() {
+        Sample sample = sample();
+        RedisData redisData = new RedisData();
+        redisData.setData(sample);
+        redisData.setExpireTime(LocalDateTime.of(2026, 10, 18, 12, 0, 0, 1));
+        redisData.setRebuildCost(-1L);
+        byte[] data = codec.encodeLogical(redisData);
+
+        RedisData decoded = codec.decodeLogical(data, Sample.class);
+        assertEquals(redisData.getExpireTime(), decoded.getExpireTime());
+        assertEquals(redisData.getRebuildCost(), decoded.getRebuildCost());
+        assertSampleEquals(sample, (Sample) decoded.getData());
+        // 以逻辑过期方式写入的数据也可以直接按TTL方式解码
+        assertSampleEquals(sample, codec.decode(data, Sample.class));
+    }
+
+    @Test
+    public void plainDataDecodedAsLogicalHasNoExpireTime() {
+        RedisData decoded = codec.decodeLogical(codec.encode(sample()), Sample.class);
+        assertNull(decoded.getExpireTime());
+        assertNull(decoded.getRebuildCost());
+        assertSampleEquals(sample(), (Sample) decoded.getData());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsChangedFieldLayout() {
+        codec.decode(codec.encode(sample()), ChangedSample.class);
+    }
+
+    @Test
+    public void distinguishesJson() {
+        JsonCacheCodec json = new JsonCacheCodec();
+        byte[] binary = codec.encode(sample());
+        byte[] text = json.encode(sample());
+        assertFalse(json.canDecode(binary));
+        assertFalse(codec.canDecode(text));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownVersion() {
+        byte[] data = codec.encode(sample());
+        data[0] = 2;
+        codec.decode(data, Sample.class);
+    }
+}